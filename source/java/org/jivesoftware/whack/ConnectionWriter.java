@@ -0,0 +1,109 @@
+/**
+ * Copyright 2026 Ignite Realtime Foundation
+ *
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.whack;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Writer of the XML stream of a connection. Besides characters, which are encoded as they are
+ * written, it accepts bytes that were encoded beforehand, such as the parts of a
+ * {@link StanzaTemplate}. Both end up in the same byte buffer, in the order they were written,
+ * and only reach the transport when the writer is flushed.
+ */
+class ConnectionWriter extends Writer {
+
+    private final BufferedOutputStream out;
+    /**
+     * Encodes characters into the byte buffer. Flushing it moves the encoded bytes into the
+     * byte buffer without flushing the transport.
+     */
+    private final Writer encoder;
+
+    ConnectionWriter(OutputStream out, String charset) throws IOException {
+        this.out = new BufferedOutputStream(out, 8192);
+        this.encoder = new OutputStreamWriter(new Unflushable(this.out), charset);
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        encoder.write(cbuf, off, len);
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        encoder.write(str, off, len);
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        encoder.write(c);
+    }
+
+    /**
+     * Writes bytes that are already encoded using the charset of the stream.
+     *
+     * @param bytes the encoded bytes.
+     * @throws IOException if an I/O error occurs.
+     */
+    void writeEncoded(byte[] bytes) throws IOException {
+        // Keep the order of the characters written before
+        encoder.flush();
+        out.write(bytes, 0, bytes.length);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        encoder.flush();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        encoder.close();
+    }
+
+    /**
+     * Passes bytes on to the byte buffer, ignoring flushes.
+     */
+    private static class Unflushable extends OutputStream {
+
+        private final OutputStream out;
+
+        Unflushable(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
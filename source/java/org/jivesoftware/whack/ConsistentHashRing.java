@@ -0,0 +1,107 @@
+/**
+ * Copyright 2026 Ignite Realtime Foundation
+ *
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.whack;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Places keys on the nodes of a server cluster using consistent hashing. Every node is put on
+ * the ring many times, so keys are spread evenly and adding or removing a node only moves the
+ * keys of that node.<p>
+ *
+ * Instances are immutable.
+ */
+class ConsistentHashRing {
+
+    /**
+     * Number of points of each node on the ring.
+     */
+    private static final int POINTS_PER_NODE = 160;
+
+    private final List<ServerEndpoint> nodes;
+    private final TreeMap<Long, ServerEndpoint> ring = new TreeMap<Long, ServerEndpoint>();
+
+    ConsistentHashRing(List<ServerEndpoint> nodes) {
+        if (nodes.isEmpty()) {
+            throw new IllegalArgumentException("At least one server endpoint is required");
+        }
+        this.nodes = Collections.unmodifiableList(new ArrayList<ServerEndpoint>(nodes));
+        for (ServerEndpoint node : this.nodes) {
+            for (int i = 0; i < POINTS_PER_NODE; i++) {
+                ring.put(hash(node + "-" + i), node);
+            }
+        }
+    }
+
+    /**
+     * Returns the nodes of the ring.
+     *
+     * @return the nodes of the ring.
+     */
+    List<ServerEndpoint> getNodes() {
+        return nodes;
+    }
+
+    /**
+     * Returns the nodes of the ring in the order of preference for the specified key. The first
+     * node is the one the key is placed on, the next ones are used when the previous ones fail.
+     *
+     * @param key the key to place.
+     * @return the distinct nodes of the ring in the order of preference for the key.
+     */
+    List<ServerEndpoint> getPreferenceList(String key) {
+        List<ServerEndpoint> preference = new ArrayList<ServerEndpoint>(nodes.size());
+        long hash = hash(key);
+        collect(ring.tailMap(hash), preference);
+        collect(ring.headMap(hash), preference);
+        return preference;
+    }
+
+    private void collect(Map<Long, ServerEndpoint> points, List<ServerEndpoint> preference) {
+        for (ServerEndpoint node : points.values()) {
+            if (preference.size() == nodes.size()) {
+                return;
+            }
+            if (!preference.contains(node)) {
+                preference.add(node);
+            }
+        }
+    }
+
+    private static long hash(String key) {
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("MD5").digest(key.getBytes(StandardCharsets.UTF_8));
+        }
+        catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support MD5
+            throw new IllegalStateException(e);
+        }
+        long hash = 0;
+        for (int i = 0; i < 8; i++) {
+            hash = (hash << 8) | (digest[i] & 0xFF);
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,36 @@
+/**
+ * Copyright 2026 Ignite Realtime Foundation
+ *
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.whack;
+
+import org.xmpp.component.IQResultListener;
+
+/**
+ * An {@link IQResultListener} that can tell a lost connection apart from a timeout. When a
+ * query is dropped because the connection with the server was lost (see
+ * {@link PendingQueryPolicy#FAIL}), listeners of this type are notified using
+ * {@link #connectionLost(String)} instead of {@link #answerTimeout(String)}.
+ */
+public interface DisconnectAwareIQResultListener extends IQResultListener {
+
+    /**
+     * Notification that the answer to the query will not arrive because the connection with
+     * the server was lost while waiting for it.
+     *
+     * @param packetId the id of the IQ packet that was sent.
+     */
+    void connectionLost(String packetId);
+}
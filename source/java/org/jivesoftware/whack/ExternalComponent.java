@@ -16,34 +16,27 @@
 
 package org.jivesoftware.whack;
 
-import java.io.BufferedWriter;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
 import java.io.Writer;
-import java.net.InetSocketAddress;
-import java.net.Socket;
-import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
-import java.util.TimerTask;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
-import org.dom4j.DocumentException;
 import org.dom4j.Element;
-import org.dom4j.io.XMLWriter;
-import org.dom4j.io.XPPPacketReader;
-import org.jivesoftware.whack.util.StringUtils;
+import org.jivesoftware.whack.util.StanzaIdGenerator;
 import org.jivesoftware.whack.util.TaskEngine;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.xmlpull.v1.XmlPullParser;
-import org.xmlpull.v1.XmlPullParserException;
-import org.xmlpull.v1.XmlPullParserFactory;
 import org.xmpp.component.Component;
 import org.xmpp.component.ComponentException;
 import org.xmpp.component.ComponentManager;
@@ -51,9 +44,7 @@ import org.xmpp.component.IQResultListener;
 import org.xmpp.packet.IQ;
 import org.xmpp.packet.JID;
 import org.xmpp.packet.Packet;
-import org.xmpp.packet.StreamError;
-
-import javax.net.ssl.SSLSocketFactory;
+import org.xmpp.packet.Presence;
 
 /**
  * ExternalComponents are responsible for connecting and authenticating with a remote server and
@@ -67,31 +58,91 @@ public class ExternalComponent implements Component {
 
     private static final Logger Log = LoggerFactory.getLogger(ExternalComponent.class);
 
-    /**
-     * The utf-8 charset for decoding and encoding XMPP packet streams.
-     */
-    private static String CHARSET = "UTF-8";
-
     private Component component;
     private ExternalComponentManager manager;
 
-    private Socket socket;
-    private XMLWriter xmlSerializer;
-    private XmlPullParserFactory factory = null;
-    private XPPPacketReader reader = null;
-    private Writer writer = null;
+    /**
+     * The connection that is used to send stanzas to the server.
+     */
+    private volatile ServerConnection connection;
+    /**
+     * A connection that was established in advance to replace the current connection as soon
+     * as it fails, or null if no hot standby is available.
+     */
+    private volatile ServerConnection standby;
+    private boolean standbyPending = false;
+    /**
+     * Lock that serializes all writes to the server. Unlike the writer of the connection, the lock
+     * survives reconnections, so threads that are sending while the connection is replaced use the
+     * same lock.
+     */
+    private final Object writeLock = new Object();
     private boolean shutdown = false;
-    private boolean reconnecting = false;
+    private volatile boolean reconnecting = false;
+    /**
+     * State of the stream management session, which survives reconnections, or null if stream
+     * management was never enabled.
+     */
+    private volatile StreamManagement streamManagement;
+    /**
+     * Stanzas that the server did not acknowledge before the previous connection was lost and
+     * that must be sent again on the new connection.
+     */
+    private List<String> unackedStanzas;
+    /**
+     * Holds the stanzas that are sent while the connection is down or null if those are lost.
+     */
+    private volatile OutboundBuffer outboundBuffer;
+    /**
+     * Queues the stanzas to send by kind and writes them from a dedicated thread, or null if
+     * stanzas are written by the sending threads.
+     */
+    private volatile OutboundLanes outboundLanes;
+    /**
+     * Shapes the stanzas sent by this component or null if their rate is not limited.
+     */
+    private volatile OutboundRateLimiter rateLimiter;
+    /**
+     * Stops the socket readers while too many received stanzas wait to be processed, or null
+     * if the readers never stop.
+     */
+    private volatile InboundGate inboundGate;
+    /**
+     * Replaces received presences that wait to be processed with newer presences of the same
+     * address, or null if every presence is processed.
+     */
+    private volatile PresenceCoalescer presenceCoalescer;
 
-    private KeepAliveTask keepAliveTask;
-    private TimeoutTask timeoutTask;
+    /**
+     * Time when the connection is next checked for a keep alive by the {@link Housekeeper}.
+     */
+    private volatile long nextKeepAlive;
+    /**
+     * Sends the keep alive. A single instance is reused for every keep alive.
+     */
+    private final Runnable keepAlive = new KeepAlive();
     /**
      * Timestamp when the last stanza was sent to the server. This information is used
      * by the keep alive process to only send heartbeats when the connection has been idle.
      */
     private long lastActive = System.currentTimeMillis();
+    /**
+     * Number of consecutive XMPP pings that were not answered in time.
+     */
+    private volatile int missedPings = 0;
+    private volatile boolean pingOutstanding = false;
+    /**
+     * Round trip time (in milliseconds) of the last answered XMPP ping and a smoothed average
+     * of the round trip times, or -1 if no ping was answered yet.
+     */
+    private volatile long lastPingRoundTrip = -1;
+    private volatile long averagePingRoundTrip = -1;
 
-    private String connectionID;
+    /**
+     * Generates the IDs of stanzas sent by this component. A new generator is created for
+     * each connection so that IDs identify the connection they were sent on.
+     */
+    private volatile StanzaIdGenerator idGenerator = new StanzaIdGenerator();
     /**
      * Hold the full domain of this component. The full domain is composed by the subdomain plus
      * the domain of the server. E.g. conference.jivesoftware.com. The domain may change after a
@@ -111,19 +162,28 @@ public class ExternalComponent implements Component {
     private int port;
 
     private boolean startEncrypted;
+    /**
+     * Position, in the preference list of the subdomain, of the node of the server cluster that
+     * the component connects to. Increased when the component moves to the next node.
+     */
+    private volatile int failover = 0;
+    /**
+     * Number of failed attempts in a row to connect with the current node of the server cluster.
+     */
+    private int endpointFailures = 0;
 
     /**
      * Pool of threads that are available for processing the requests.
      */
     private ExecutorService threadPool;
     /**
-     * Thread that will read the XML from the socket and ask this component to process the read
-     * packets.
+     * IQ packets sent by this component that are waiting for an answer, by packet ID.
      */
-    private SocketReadThread readerThread;
-
-    private Map<String, IQResultListener> resultListeners = new ConcurrentHashMap<String, IQResultListener>();
-    private Map<String, Long> resultTimeout = new ConcurrentHashMap<String, Long>();
+    private Map<String, PendingQuery> pendingQueries = new ConcurrentHashMap<String, PendingQuery>();
+    /**
+     * Limits the number of queries that can wait for an answer at the same time.
+     */
+    private final PendingQueryBudget pendingQueryBudget = new PendingQueryBudget();
 
     public ExternalComponent(Component component, ExternalComponentManager manager) {
         // Be default create a pool of 25 threads to process the received requests
@@ -169,137 +229,81 @@ public class ExternalComponent implements Component {
      * @throws ComponentException if an error happens during the connection and authentication steps.
      */
     public void connect(String host, int port, String subdomain, boolean startEncrypted) throws ComponentException {
-        try {
-            // Open a socket to the server
-            if ( startEncrypted ) {
-                this.socket = SSLSocketFactory.getDefault().createSocket();
-            } else {
-                this.socket = new Socket();
-            }
-            socket.connect(new InetSocketAddress(host, port), manager.getConnectTimeout());
-            if (manager.getServerName() != null) {
-                this.domain = subdomain + "." + manager.getServerName();
-            }
-            else {
-                this.domain = subdomain;
-            }
-            this.subdomain = subdomain;
-            // Keep these variables that will be used in case a reconnection is required
-            this.host= host;
-            this.port = port;
-            this.startEncrypted = startEncrypted;
+        if (manager.getServerName() != null) {
+            this.domain = subdomain + "." + manager.getServerName();
+        }
+        else {
+            this.domain = subdomain;
+        }
+        this.subdomain = subdomain;
+        // Keep these variables that will be used in case a reconnection is required
+        this.host= host;
+        this.port = port;
+        this.startEncrypted = startEncrypted;
 
-            try {
-                factory = XmlPullParserFactory.newInstance();
-                reader = new XPPPacketReader();
-                reader.setXPPFactory(factory);
-
-                reader.getXPPParser().setInput(new InputStreamReader(socket.getInputStream(),
-                        CHARSET));
-
-                // Get a writer for sending the open stream tag
-                writer =
-                        new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(),
-                                CHARSET));
-                // Open the stream.
-                StringBuilder stream = new StringBuilder();
-                stream.append("<stream:stream");
-                stream.append(" xmlns=\"jabber:component:accept\"");
-                stream.append(" xmlns:stream=\"http://etherx.jabber.org/streams\"");
-                if (manager.isMultipleAllowed(subdomain)) {
-                    stream.append(" allowMultiple=\"true\"");
-                }
-                stream.append(" to=\"").append(domain).append("\">");
-                writer.write(stream.toString());
-                writer.flush();
-                stream = null;
-
-                // Get the answer from the server
-                XmlPullParser xpp = reader.getXPPParser();
-                for (int eventType = xpp.getEventType(); eventType != XmlPullParser.START_TAG;) {
-                    eventType = xpp.next();
-                }
-
-                // Set the streamID returned from the server
-                connectionID = xpp.getAttributeValue("", "id");
-                if (xpp.getAttributeValue("", "from") != null) {
-                    this.domain = xpp.getAttributeValue("", "from");
-                }
-                xmlSerializer = new XMLWriter(writer);
-
-                // Handshake with the server
-                stream = new StringBuilder();
-                stream.append("<handshake>");
-                stream.append(StringUtils.hash(connectionID + manager.getSecretKey(subdomain)));
-                stream.append("</handshake>");
-                writer.write(stream.toString());
-                writer.flush();
-                stream = null;
-
-                // Get the answer from the server
-                try {
-                    Element doc = reader.parseDocument().getRootElement();
-                    if ("error".equals(doc.getName())) {
-                        StreamError error = new StreamError(doc);
-                        // Close the connection
-                        socket.close();
-                        socket = null;
-                        // throw the exception with the wrapped error
-                        throw new ComponentException(error);
-                    }
-                    // Everything went fine
-                    // Start keep alive thread to send every 30 seconds of inactivity a heart beat
-                    keepAliveTask = new KeepAliveTask();
-                    TaskEngine.getInstance().scheduleAtFixedRate(keepAliveTask, 15000, 30000);
+        if (rateLimiter == null && (manager.getOutboundRateLimit() > 0 || manager.getDomainOutboundRateLimit() > 0)) {
+            rateLimiter = new OutboundRateLimiter(manager.getOutboundRateLimit(), manager.getOutboundBurstSize(),
+                    manager.getDomainOutboundRateLimit(), manager.getDomainOutboundBurstSize());
+        }
 
-                    timeoutTask = new TimeoutTask();
-                    TaskEngine.getInstance().scheduleAtFixedRate(timeoutTask, 2000, 2000);
+        if (presenceCoalescer == null && manager.isPresenceCoalescingEnabled(subdomain)) {
+            presenceCoalescer = new PresenceCoalescer();
+        }
+        if (inboundGate == null && manager.getInboundHighWatermark() > 0) {
+            inboundGate = new InboundGate(manager.getInboundHighWatermark(), manager.getInboundLowWatermark());
+        }
 
-                } catch (DocumentException e) {
-                    try {
-                        socket.close();
-                    }
-                    catch (IOException ioe) {
-                        // Do nothing
-                    }
-                    throw new ComponentException(e);
-                } catch (XmlPullParserException e) {
-                    try {
-                        socket.close();
-                    }
-                    catch (IOException ioe) {
-                        // Do nothing
+        ServerConnection newConnection = new ServerConnection(manager);
+        try {
+            newConnection.open(getEndpoint(0), subdomain, domain, startEncrypted);
+        }
+        catch (ComponentException e) {
+            endpointFailed();
+            throw e;
+        }
+        synchronized (this) {
+            endpointFailures = 0;
+        }
+        StreamManagement session = null;
+        long resumed = -1;
+        String sessionId = null;
+        if (manager.isStreamManagementEnabled(subdomain) && newConnection.isStreamManagementOffered()) {
+            try {
+                synchronized (writeLock) {
+                    session = streamManagement;
+                    if (session == null) {
+                        session = new StreamManagement(manager.getMaxUnackedStanzas());
+                        streamManagement = session;
                     }
-                    throw new ComponentException(e);
                 }
-            } catch (XmlPullParserException e) {
-                try {
-                    socket.close();
+                String resumptionId = session.getResumptionId();
+                if (resumptionId != null) {
+                    resumed = newConnection.resumeStreamManagement(resumptionId, session.getReceived());
                 }
-                catch (IOException ioe) {
-                    // Do nothing
+                if (resumed < 0) {
+                    sessionId = newConnection.enableStreamManagement();
                 }
-                throw new ComponentException(e);
-            }
-        }
-        catch (UnknownHostException uhe) {
-            try {
-                if (socket != null) socket.close();
             }
-            catch (IOException e) {
-                // Do nothing
+            catch (ComponentException e) {
+                newConnection.close();
+                throw e;
             }
-            throw new ComponentException(uhe);
         }
-        catch (IOException ioe) {
-            try {
-                if (socket != null) socket.close();
-            }
-            catch (IOException e) {
-                // Do nothing
-            }
-            throw new ComponentException(ioe);
+        // Everything went fine
+        this.domain = newConnection.getDomain();
+        synchronized (writeLock) {
+            // No stanza may be recorded in the session while it moves to the new connection
+            adoptStreamManagement(newConnection, session, resumed, sessionId);
+            this.connection = newConnection;
         }
+        idGenerator = new StanzaIdGenerator();
+        missedPings = 0;
+        pingOutstanding = false;
+        // Send every 30 seconds of inactivity a heart beat or, when XMPP pings are enabled,
+        // ping the server when it has been silent. Timed out queries are expired as well.
+        long pingInterval = manager.getPingInterval();
+        nextKeepAlive = newConnection.getLastReceived() + (pingInterval > 0 ? pingInterval : 15000);
+        manager.getHousekeeper().register(this);
     }
 
     public Component getComponent() {
@@ -335,253 +339,1562 @@ public class ExternalComponent implements Component {
     }
 
     /**
-     * Returns the ComponentManager that created this component.
+     * Returns the time, in milliseconds, that the TLS handshake of the current connection took
+     * or -1 if the connection is not encrypted.
      *
-     * @return the ComponentManager that created this component.
+     * @return the time that the TLS handshake took or -1.
      */
-    ExternalComponentManager getManager() {
-        return manager;
+    public long getTlsHandshakeTime() {
+        ServerConnection current = connection;
+        return current != null ? current.getTlsHandshakeTime() : -1;
     }
 
-    public void processPacket(final Packet packet) {
-        threadPool.execute(new Runnable() {
-            public void run() {
-                if (packet instanceof IQ) {
-                    IQ iq = (IQ) packet;
-                    IQ.Type iqType = iq.getType();
-                    if (IQ.Type.result == iqType || IQ.Type.error == iqType) {
-                        // The server got an answer to an IQ packet that was sent from the component
-                        IQResultListener iqResultListener = resultListeners.remove(iq.getID());
-                        resultTimeout.remove(iq.getID());
-                        if (iqResultListener != null) {
-                            try {
-                                iqResultListener.receivedAnswer(iq);
-                            }
-                            catch (Exception e) {
-                                 Log.error("Error processing answer of remote entity", e);
-                            }
-                            return;
-                        }
-                    }
-                }
-                component.processPacket(packet);
-            }
-        });
+    /**
+     * Returns true if the TLS handshake of the current connection resumed a session that was
+     * established with the server before, which is much faster than a full handshake.
+     *
+     * @return true if the TLS session of the current connection was resumed.
+     */
+    public boolean isTlsSessionResumed() {
+        ServerConnection current = connection;
+        return current != null && current.isTlsSessionResumed();
     }
 
-    public void send(Packet packet) {
-        synchronized (writer) {
-            try {
-                xmlSerializer.write(packet.getElement());
-                xmlSerializer.flush();
-                // Keep track of the last time a stanza was sent to the server
-                lastActive = System.currentTimeMillis();
-            }
-            catch (IOException e) {
-                // Log the exception
-                Log.error("Unable to send stanza: {}", packet, e);
-                if (!shutdown) {
-                    // Connection was lost so try to reconnect
-                    connectionLost();
-                }
-            }
+    /**
+     * Returns the node of the server that this component is connected to, or the node that it
+     * connects to next if the connection is down.
+     *
+     * @return the node of the server that this component is connected to.
+     */
+    public ServerEndpoint getServerEndpoint() {
+        ServerConnection current = connection;
+        if (current != null && !current.isClosed()) {
+            return current.getEndpoint();
         }
+        return getEndpoint(0);
     }
 
-    public void initialize(JID jid, ComponentManager componentManager) throws ComponentException {
-        component.initialize(jid, componentManager);
+    /**
+     * Returns the node of the server for a connection of this component. The connection that is
+     * used to send stanzas has offset 0 and the hot standby has offset 1, so that the standby is
+     * placed on another node of the server cluster when possible.
+     *
+     * @param offset the offset from the current position in the preference list of the subdomain.
+     * @return the node of the server to connect with.
+     */
+    private ServerEndpoint getEndpoint(int offset) {
+        ServerEndpoint endpoint = manager.getServerEndpoint(subdomain, failover + offset);
+        return endpoint != null ? endpoint : new ServerEndpoint(host, port);
     }
 
-    public void start() {
-        // Everything went fine so start reading packets from the server
-        readerThread = new SocketReadThread(this, reader);
-        readerThread.setDaemon(true);
-        readerThread.start();
-        // Notify the component that it will be notified of new received packets
-        component.start();
+    /**
+     * Records a failed attempt to connect with the current node of the server cluster and moves
+     * to the next node when the node failed too many times in a row.
+     */
+    private synchronized void endpointFailed() {
+        if (++endpointFailures < manager.getMaxEndpointFailures()
+                || manager.getServerEndpoints().size() < 2) {
+            return;
+        }
+        Log.warn("Server node {} failed {} times in a row. Moving {} to the next node.",
+                getEndpoint(0), endpointFailures, subdomain);
+        failover++;
+        endpointFailures = 0;
     }
 
-    public void shutdown() {
-        shutdown = true;
-        // Notify the component to shutdown
-        component.shutdown();
-        disconnect();
+    /**
+     * Returns a new stanza ID that is unique for the connection with the server. IDs are
+     * generated without contention between threads.
+     *
+     * @return a new stanza ID.
+     */
+    public String nextStanzaId() {
+        return idGenerator.nextId();
     }
 
-    private void disconnect() {
-        if (readerThread != null) {
-            readerThread.shutdown();
+    /**
+     * Returns the round trip time, in milliseconds, of the last XMPP ping that was answered
+     * by the server or -1 if no ping was answered yet.
+     *
+     * @return the round trip time of the last answered XMPP ping.
+     */
+    public long getLastPingRoundTrip() {
+        return lastPingRoundTrip;
+    }
+
+    /**
+     * Returns a smoothed average of the round trip times, in milliseconds, of the XMPP pings
+     * that were answered by the server or -1 if no ping was answered yet.
+     *
+     * @return the average round trip time of XMPP pings.
+     */
+    public long getAveragePingRoundTrip() {
+        return averagePingRoundTrip;
+    }
+
+    /**
+     * Returns the number of consecutive XMPP pings that the server did not answer in time.
+     *
+     * @return the number of consecutive missed XMPP pings.
+     */
+    public int getMissedPings() {
+        return missedPings;
+    }
+
+    /**
+     * Moves the stream management session of this component to a new connection. Stanzas that
+     * the server did not acknowledge on the previous connection are sent again once the new
+     * connection has been started: only the unreceived ones if the session was resumed, all of
+     * them otherwise. Must be invoked while holding the write lock.
+     *
+     * @param newConnection the new connection, which is not reading stanzas yet.
+     * @param session the session if stream management was negotiated on the new connection,
+     *        otherwise null.
+     * @param resumed the number of stanzas that the server received if the session was resumed,
+     *        otherwise -1.
+     * @param sessionId the ID of the new session if a new session was enabled, an empty string
+     *        if it cannot be resumed, or null if the server did not enable a session.
+     */
+    private void adoptStreamManagement(ServerConnection newConnection, StreamManagement session, long resumed,
+            String sessionId) {
+        if (session != null && resumed >= 0) {
+            collectUnacked(session.resume(resumed));
+            newConnection.setStreamManagement(session);
+            Log.info("Resumed stream of {}. Resending {} unacknowledged stanzas.", domain, unackedStanzas.size());
+            return;
         }
-        threadPool.shutdown();
-        TaskEngine.getInstance().cancelScheduledTask(keepAliveTask);
-        TaskEngine.getInstance().cancelScheduledTask(timeoutTask);
-        if (socket != null && !socket.isClosed()) {
-            try {
-                synchronized (writer) {
-                    try {
-                        writer.write("</stream:stream>");
-                        xmlSerializer.flush();
-                    }
-                    catch (IOException e) {
-                        // Do nothing
-                    }
-                }
-            }
-            catch (Exception e) {
-                // Do nothing
-            }
-            try {
-                socket.close();
-            }
-            catch (Exception e) {
-                Log.error("Unable to close socket.", e);
-            }
+        StreamManagement previous = streamManagement;
+        if (previous == null) {
+            return;
+        }
+        // The server may or may not have received the unacknowledged stanzas, send them again
+        collectUnacked(previous.getUnacked());
+        previous.start(sessionId == null || sessionId.isEmpty() ? null : sessionId);
+        if (session != null && sessionId != null) {
+            newConnection.setStreamManagement(previous);
         }
     }
 
     /**
-     * Notification message that the connection with the server was lost unexpectedly. We will try
-     * to reestablish the connection for ever until the connection has been reestablished or this
-     * thread has been stopped.
+     * Adds the stanzas that still wait to be sent again after an earlier failed attempt to the
+     * specified unacknowledged stanzas, which were sent before them, and keeps the result to be
+     * sent again. Must be invoked while holding the write lock.
      */
-    public void connectionLost() {
-        // Ensure that only one thread will try to reconnect.
-        synchronized(this) {
-            if (reconnecting) {
-                return;
-            }
-            reconnecting = true;
+    private void collectUnacked(List<String> unacked) {
+        if (unackedStanzas != null) {
+            unacked.addAll(unackedStanzas);
         }
-        readerThread = null;
-        boolean isConnected = false;
-        if (!shutdown) {
-            // Notify the component that connection was lost so it needs to shutdown. The component is
-            // still registered in the local component manager but just not connected to the server
-            component.shutdown();
+        unackedStanzas = unacked;
+    }
+
+    /**
+     * Processes an element of stream management received from the server: an acknowledgement
+     * of sent stanzas or a request to acknowledge the received stanzas.
+     *
+     * @param source the connection that received the element.
+     * @param element the received element.
+     */
+    void processStreamManagement(ServerConnection source, Element element) {
+        StreamManagement session = source.getStreamManagement();
+        if (session == null) {
+            return;
         }
-        while (!isConnected && !shutdown) {
+        if ("a".equals(element.getName())) {
             try {
-                connect(host, port, subdomain, startEncrypted);
-                isConnected = true;
-                // It may be possible that while a new connection was being established the
-                // component was required to shutdown so in this case we need to close the new
-                // connection
-                if (shutdown) {
-                    disconnect();
-                }
-                else {
-                    // Component is back again working so start it up again
-                    start();
-                }
-            } catch (ComponentException e) {
-                Log.error("Error trying to reconnect with the server", e);
-                // Wait for 5 seconds until the next retry
+                session.acked(Long.parseLong(element.attributeValue("h")));
+            }
+            catch (NumberFormatException e) {
+                Log.warn("Invalid stream management acknowledgement: {}", element.asXML());
+            }
+        }
+        else if ("r".equals(element.getName())) {
+            synchronized (writeLock) {
                 try {
-                    Thread.sleep(5000);
+                    source.getWriter().write("<a xmlns=\"" + StreamManagement.NAMESPACE + "\" h=\""
+                            + session.getReceived() + "\"/>");
+                    source.getWriter().flush();
                 }
-                catch (InterruptedException e1) {
-                    // Do nothing
+                catch (IOException e) {
+                    // The reader of the connection will notice that the connection was lost
+                    Log.debug("Unable to acknowledge received stanzas", e);
                 }
             }
         }
-        reconnecting = false;
     }
 
     /**
-     * Adds an {@link IQResultListener} that will be invoked when an IQ result is sent to the
-     * server itself and is of type result or error. This is a nice way for the server to
-     * send IQ packets to other XMPP entities and be waked up when a response is received back.<p>
-     *
-     * Once an IQ result was received, the listener will be invoked and removed from
-     * the list of listeners.
+     * Returns the number of stanzas of the specified kind that are queued in the outbound lanes
+     * of this component, or zero if outbound lanes are not used.
      *
-     * @param id the id of the IQ packet being sent from the server to an XMPP entity.
-     * @param listener the IQResultListener that will be invoked when an answer is received
-     * @param timeoutmillis The amount of milliseconds after which waiting for a response should be stopped.
+     * @param kind the kind of stanzas.
+     * @return the number of queued stanzas of that kind.
      */
-    void addIQResultListener(String id, IQResultListener listener, long timeoutmillis) {
-        // be generated by the server and simulate like the client sent it. This will let listeners
-        // react and be removed from the collection
-        resultListeners.put(id, listener);
-        resultTimeout.put(id, System.currentTimeMillis() + timeoutmillis);
+    public int getOutboundLaneDepth(StanzaKind kind) {
+        OutboundLanes lanes = outboundLanes;
+        return lanes != null ? lanes.getDepth(kind) : 0;
     }
 
     /**
-     * A TimerTask that keeps connections to the server alive by sending a space
-     * character on an interval.
+     * Returns the number of stanzas that were queued in the outbound lanes of this component
+     * but could neither be sent nor buffered by the writer thread.
+     *
+     * @return the number of stanzas dropped by the outbound lanes.
      */
-    private class KeepAliveTask extends TimerTask {
+    public long getOutboundLaneDropCount() {
+        OutboundLanes lanes = outboundLanes;
+        return lanes != null ? lanes.getDroppedCount() : 0;
+    }
 
-        private final Logger Log = LoggerFactory.getLogger(KeepAliveTask.class);
+    /**
+     * Returns the number of stanzas sent by this component that had to wait because of the
+     * outbound rate limits.
+     *
+     * @return the number of delayed stanzas.
+     */
+    public long getRateLimitedStanzaCount() {
+        OutboundRateLimiter limiter = rateLimiter;
+        return limiter != null ? limiter.getDelayedCount() : 0;
+    }
 
-        public void run() {
-            synchronized (writer) {
-                // Send heartbeat if no packet has been sent to the server for a given time
-                if (System.currentTimeMillis() - lastActive >= 30000) {
-                    try {
-                        writer.write(" ");
-                        writer.flush();
-                    }
-                    catch (IOException e) {
-                        // Log the exception
-                        Log.error("Unable to send a whitespace ping.", e);
-                        if (!shutdown) {
-                            // Connection was lost so try to reconnect
-                            connectionLost();
-                        }
-                    }
-                    catch (Exception e) {
-                        // Do nothing
-                    }
-                }
-            }
-        }
+    /**
+     * Returns the total time, in milliseconds, that the stanzas sent by this component waited
+     * because of the outbound rate limits. Divided by {@link #getRateLimitedStanzaCount()} this
+     * gives the average queue time of a delayed stanza.
+     *
+     * @return the total time that stanzas waited for the rate limits.
+     */
+    public long getRateLimitQueueTime() {
+        OutboundRateLimiter limiter = rateLimiter;
+        return limiter != null ? limiter.getQueueTime() : 0;
     }
 
     /**
-	 * Timer task that will remove Listeners that wait for results to IQ stanzas
-	 * that have timed out. Time out values can be set to each listener
-	 * individually by adjusting the timeout value in the third parameter of
-	 * {@link ExternalComponent#addIQResultListener(String, IQResultListener, long)}.
-	 *
-	 * @author Guus der Kinderen, guus@nimbuzz.com
-	 */
-    private class TimeoutTask extends TimerTask {
+     * Returns the number of times that {@link #trySend(Packet, long)} did not send a stanza
+     * because the rate limits did not allow it within the timeout.
+     *
+     * @return the number of stanzas rejected by the rate limits.
+     */
+    public long getRateLimitRejectedCount() {
+        OutboundRateLimiter limiter = rateLimiter;
+        return limiter != null ? limiter.getRejectedCount() : 0;
+    }
 
-        /**
-         * Iterates over and removes all timed out results.<p>
-         *
-         * The map that keeps track of timeout values is ordered by timeout
-         * date. This way, iteration can be stopped as soon as the first value
-         * has been found that didn't timeout yet.
-         */
-        @Override
-        public void run() {
-            // Use an Iterator to allow changes to the Map that is backing
-            // the Iterator.
-            final Iterator<Map.Entry<String, Long>> it = resultTimeout.entrySet().iterator();
+    /**
+     * Returns the number of stanzas sent by this component that the server did not acknowledge
+     * yet, or zero if stream management is not used.
+     *
+     * @return the number of unacknowledged stanzas.
+     */
+    public int getUnackedStanzaCount() {
+        StreamManagement session = streamManagement;
+        return session != null ? session.getUnackedCount() : 0;
+    }
 
-            while (it.hasNext()) {
-                final Map.Entry<String, Long> pointer = it.next();
+    /**
+     * Writes a stanza and records it in the stream management session, if any. The stanza is
+     * only recorded once it was written without error. A recorded stanza is sent again by
+     * stream management if the connection fails, so it must not be buffered as well. Must be
+     * invoked while holding the write lock.
+     *
+     * @return true if an acknowledgement should be requested before flushing.
+     */
+    private boolean write(Writer writer, StreamManagement session, String stanza) throws IOException {
+        writer.write(stanza);
+        return session != null && session.sent(stanza, manager.getAckRequestInterval());
+    }
 
-                if (System.currentTimeMillis() < pointer.getValue()) {
-                    // This entry has not expired yet. Ignore it.
-                    continue;
-                }
+    /**
+     * Flushes the writer, requesting an acknowledgement of stream management first if due.
+     * Must be invoked while holding the write lock.
+     */
+    private static void flush(Writer writer, boolean requestAck) throws IOException {
+        if (requestAck) {
+            writer.write(StreamManagement.ACK_REQUEST);
+        }
+        writer.flush();
+    }
 
-                final String packetId = pointer.getKey();
+    /**
+     * Returns the ComponentManager that created this component.
+     *
+     * @return the ComponentManager that created this component.
+     */
+    ExternalComponentManager getManager() {
+        return manager;
+    }
 
-                // remove this listener from the list
-                final IQResultListener listener = resultListeners.remove(packetId);
-                if (listener != null) {
-                    // notify listener of the timeout.
-                    listener.answerTimeout(packetId);
-                }
+    /**
+     * Notification that an element was received on the specified connection. Inbound traffic
+     * proves that the connection is alive. Only traffic on the connection that is used to send
+     * stanzas counts for its keep alive, so a busy hot standby cannot hide a dead connection.
+     *
+     * @param source the connection that received the element.
+     */
+    void received(ServerConnection source) {
+        source.received();
+        if (source == connection) {
+            missedPings = 0;
+        }
+    }
 
-                // remove the packet from the list that's used to track
-                // timeouts
-                it.remove();
+    public void processPacket(final Packet packet) {
+        PresenceCoalescer presences = presenceCoalescer;
+        if (presences != null && PresenceCoalescer.isCoalescable(packet)) {
+            if (presences.offer((Presence) packet)) {
+                // A presence of the same address is queued and will be processed in its place
+                return;
             }
         }
-	}
+        else {
+            presences = null;
+        }
+        final PresenceCoalescer coalescer = presences;
+        final InboundGate gate = inboundGate;
+        if (gate != null) {
+            gate.dispatched();
+        }
+        try {
+            threadPool.execute(new Runnable() {
+                public void run() {
+                    try {
+                        dispatch(coalescer != null ? coalescer.take((Presence) packet) : packet);
+                    }
+                    finally {
+                        if (gate != null) {
+                            gate.completed();
+                            if (gate.startDraining()) {
+                                processDeferred(gate);
+                            }
+                        }
+                    }
+                }
+            });
+        }
+        catch (RuntimeException e) {
+            // The packet will not be processed
+            if (coalescer != null) {
+                coalescer.take((Presence) packet);
+            }
+            if (gate != null) {
+                gate.completed();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Hands the stanzas that were deferred while reading was paused to the thread pool, in the
+     * order they were read, until there are no more or reading is paused again.
+     */
+    private void processDeferred(InboundGate gate) {
+        Packet packet;
+        while ((packet = gate.nextDeferred()) != null) {
+            try {
+                processPacket(packet);
+            }
+            catch (Exception e) {
+                Log.error("Error processing a deferred packet", e);
+            }
+        }
+    }
+
+    /**
+     * Processes a packet that was read from the server, unless the processing of received
+     * stanzas is paused by the watermarks configured with
+     * {@link ExternalComponentManager#setInboundWatermarks(int, int)}. Answers to pending
+     * queries are always processed so that threads waiting for them are not blocked by the
+     * pause. Other packets are deferred until the pause ends.
+     *
+     * @param packet the packet that was read.
+     */
+    void processReceived(Packet packet) {
+        InboundGate gate = inboundGate;
+        if (gate == null || isPendingAnswer(packet) || !gate.defer(packet)) {
+            processPacket(packet);
+        }
+    }
+
+    private boolean isPendingAnswer(Packet packet) {
+        if (!(packet instanceof IQ)) {
+            return false;
+        }
+        IQ.Type type = ((IQ) packet).getType();
+        return (IQ.Type.result == type || IQ.Type.error == type) && packet.getID() != null
+                && pendingQueries.containsKey(packet.getID());
+    }
+
+    /**
+     * Waits until the socket readers may read the next stanza. Readers stop while as many
+     * received stanzas as the high watermark configured with
+     * {@link ExternalComponentManager#setInboundWatermarks(int, int)} are deferred.
+     *
+     * @throws InterruptedException if the reader was interrupted while waiting.
+     */
+    void awaitInboundCapacity() throws InterruptedException {
+        InboundGate gate = inboundGate;
+        if (gate != null) {
+            gate.awaitCapacity();
+        }
+    }
+
+    /**
+     * Returns the number of received stanzas that were handed to the thread pool of this
+     * component but not processed yet, or zero if inbound watermarks are not used.
+     *
+     * @return the number of received stanzas waiting to be processed.
+     */
+    public int getInboundQueueSize() {
+        InboundGate gate = inboundGate;
+        return gate != null ? gate.getPending() : 0;
+    }
+
+    /**
+     * Returns true if this component defers the stanzas it reads because too many received
+     * stanzas wait to be processed.
+     *
+     * @return true if processing of received stanzas is paused.
+     */
+    public boolean isInboundPaused() {
+        InboundGate gate = inboundGate;
+        return gate != null && gate.isPaused();
+    }
+
+    /**
+     * Returns the number of received presences that were not processed because a newer
+     * presence of the same address arrived while they were waiting to be processed.
+     *
+     * @return the number of coalesced presences.
+     */
+    public long getCoalescedPresenceCount() {
+        PresenceCoalescer presences = presenceCoalescer;
+        return presences != null ? presences.getCoalescedCount() : 0;
+    }
+
+    /**
+     * Processes a received packet. Answers to queries sent by this component are passed to the
+     * listeners of the queries and all other packets to the component.
+     */
+    private void dispatch(Packet packet) {
+        if (packet instanceof IQ) {
+            IQ iq = (IQ) packet;
+            IQ.Type iqType = iq.getType();
+            if (IQ.Type.result == iqType || IQ.Type.error == iqType) {
+                // The server got an answer to an IQ packet that was sent from the component
+                PendingQuery query = pendingQueries.remove(iq.getID());
+                if (query != null) {
+                    releaseBudget(query);
+                    try {
+                        query.receivedAnswer(iq);
+                    }
+                    catch (Exception e) {
+                         Log.error("Error processing answer of remote entity", e);
+                    }
+                    return;
+                }
+            }
+        }
+        component.processPacket(packet);
+    }
+
+    /**
+     * Sends a packet to the server. If outbound lanes are enabled for the subdomain (see
+     * {@link ExternalComponentManager#setOutboundLanesEnabled(String, boolean)}) then the packet
+     * is queued in the lane of its kind and written by the writer thread of the component.
+     * The lane keeps a copy of the packet, so the packet may be changed or reused once this
+     * method returns. The sending thread waits while the lane is full (see
+     * {@link ExternalComponentManager#setOutboundLaneCapacity(int)}). If the rate of outbound
+     * stanzas is limited then the sending thread waits until the stanza may be sent.
+     *
+     * @param packet the packet to send.
+     */
+    public void send(Packet packet) {
+        OutboundLanes lanes = outboundLanes;
+        if (lanes != null && lanes.offer(packet)) {
+            return;
+        }
+        OutboundRateLimiter limiter = rateLimiter;
+        if (limiter != null) {
+            long start = System.nanoTime();
+            long[] delays = limiter.reserve(Collections.singletonList(getDomain(packet.getTo())), -1);
+            OutboundRateLimiter.await(start, delays[0]);
+        }
+        write(packet);
+    }
+
+    /**
+     * Sends a packet to the server unless the rate limits keep it from being sent within the
+     * specified time (see {@link ExternalComponentManager#setOutboundRateLimit(double, int)}).
+     * Callers can use this to notice that they send faster than the server accepts and slow
+     * down or drop stanzas themselves. The packet is written right away, even when outbound
+     * lanes are used.
+     *
+     * @param packet the packet to send.
+     * @param timeout the maximum time, in milliseconds, to wait until the packet may be sent.
+     * @return false if the packet was not sent because the rate limit was exceeded.
+     */
+    public boolean trySend(Packet packet, long timeout) {
+        OutboundRateLimiter limiter = rateLimiter;
+        if (limiter != null) {
+            long start = System.nanoTime();
+            long[] delays = limiter.reserve(Collections.singletonList(getDomain(packet.getTo())), timeout);
+            if (delays == null) {
+                return false;
+            }
+            OutboundRateLimiter.await(start, delays[0]);
+        }
+        write(packet);
+        return true;
+    }
+
+    /**
+     * Writes a packet to the server right away, buffering it if the connection is down.
+     */
+    private void write(Packet packet) {
+        synchronized (writeLock) {
+            if (reconnecting && outboundBuffer != null && !shutdown) {
+                // Keep the stanza until the connection has been reestablished
+                if (!outboundBuffer.offer(packet)) {
+                    Log.warn("Unable to buffer stanza while reconnecting: {}", packet);
+                }
+                return;
+            }
+            ServerConnection current = connection;
+            boolean recorded = false;
+            try {
+                boolean requestAck = write(current, packet);
+                recorded = current.getStreamManagement() != null;
+                flush(current.getWriter(), requestAck);
+                // Keep track of the last time a stanza was sent to the server
+                lastActive = System.currentTimeMillis();
+            }
+            catch (IOException e) {
+                if (recorded) {
+                    Log.debug("Stanza will be sent again by stream management: {}", packet, e);
+                }
+                else if (!shutdown && outboundBuffer != null && outboundBuffer.offer(packet)) {
+                    Log.debug("Buffered stanza that could not be sent: {}", packet, e);
+                }
+                else {
+                    // Log the exception
+                    Log.error("Unable to send stanza: {}", packet, e);
+                }
+                if (!shutdown) {
+                    // Connection was lost so try to reconnect
+                    connectionLost();
+                }
+            }
+        }
+    }
+
+    /**
+     * Sends many packets at once. The packets are sent in order while holding the lock of the
+     * connection once and are flushed to the server once, which is much cheaper than sending
+     * the packets one by one. The packets are written right away, even when outbound lanes are
+     * used.<p>
+     *
+     * If the rate of outbound stanzas is limited then the packets are sent as soon as the rate
+     * limits allow. Packets to a destination domain that reached its own limit are held back
+     * and sent after the packets to other domains, so the order of packets to different
+     * domains may change. Packets to the same domain keep their order.<p>
+     *
+     * If the connection fails while sending the batch then the packets that may not have
+     * reached the server are kept in the {@link OutboundBuffer}, if any, and a reconnection is
+     * started. Packets that could neither be sent nor buffered are returned.
+     *
+     * @param packets the packets to send.
+     * @return the packets that could not be sent nor buffered, in order. The list is empty if
+     *         all packets were sent or buffered.
+     */
+    public List<Packet> sendAll(Collection<? extends Packet> packets) {
+        OutboundRateLimiter limiter = rateLimiter;
+        if (limiter == null) {
+            return writeAll(packets);
+        }
+        List<Packet> batch = new ArrayList<Packet>(packets);
+        List<String> domains = new ArrayList<String>(batch.size());
+        for (Packet packet : batch) {
+            domains.add(getDomain(packet.getTo()));
+        }
+        long start = System.nanoTime();
+        long[] delays = limiter.reserve(domains, -1);
+        List<Packet> failed = new ArrayList<Packet>();
+        for (List<Integer> group : OutboundRateLimiter.group(delays)) {
+            List<Packet> due = new ArrayList<Packet>(group.size());
+            long delay = 0;
+            for (Integer index : group) {
+                due.add(batch.get(index));
+                delay = Math.max(delay, delays[index]);
+            }
+            OutboundRateLimiter.await(start, delay);
+            failed.addAll(writeAll(due));
+        }
+        return failed;
+    }
+
+    /**
+     * Writes many packets at once, buffering them if the connection is down.
+     *
+     * @return the packets that could not be sent nor buffered, in order.
+     */
+    private List<Packet> writeAll(Collection<? extends Packet> packets) {
+        List<Packet> failed = new ArrayList<Packet>();
+        synchronized (writeLock) {
+            if (reconnecting && outboundBuffer != null && !shutdown) {
+                // Keep the stanzas until the connection has been reestablished
+                for (Packet packet : packets) {
+                    if (!outboundBuffer.offer(packet)) {
+                        failed.add(packet);
+                    }
+                }
+                if (!failed.isEmpty()) {
+                    Log.warn("Unable to buffer {} stanzas while reconnecting", failed.size());
+                }
+                return failed;
+            }
+            ServerConnection current = connection;
+            boolean managed = current.getStreamManagement() != null;
+            int recorded = 0;
+            try {
+                boolean requestAck = false;
+                for (Packet packet : packets) {
+                    requestAck |= write(current, packet);
+                    if (managed) {
+                        recorded++;
+                    }
+                }
+                flush(current.getWriter(), requestAck);
+                // Keep track of the last time a stanza was sent to the server
+                lastActive = System.currentTimeMillis();
+            }
+            catch (IOException e) {
+                // It is unknown which packets of the batch reached the server. Those recorded
+                // by stream management will be sent again by it.
+                int index = 0;
+                for (Packet packet : packets) {
+                    if (index++ < recorded) {
+                        continue;
+                    }
+                    if (shutdown || outboundBuffer == null || !outboundBuffer.offer(packet)) {
+                        failed.add(packet);
+                    }
+                }
+                Log.error("Unable to send batch of {} stanzas ({} not buffered)", packets.size(), failed.size(), e);
+                if (!shutdown) {
+                    // Connection was lost so try to reconnect
+                    connectionLost();
+                }
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * Sends a stanza to many recipients. The stanza is serialized once, when the template is
+     * created, and each copy written to the server only differs in its 'to' attribute, so the
+     * cost grows with the number of recipients but not with the size of the stanza. All copies
+     * are written while holding the lock of the connection once and are flushed once. When
+     * the rate of outbound stanzas is limited, copies to a domain that reached its own limit
+     * are held back as described in {@link #sendAll(Collection)}.<p>
+     *
+     * While stream management is used each copy is kept as a string until the server
+     * acknowledges it. If the connection fails then the copies that may not have reached the
+     * server are kept in the {@link OutboundBuffer}, if any, and a reconnection is started.
+     *
+     * @param template the stanza to send.
+     * @param recipients the recipients of the stanza.
+     * @return the recipients whose copy could not be sent nor buffered, in order. The list is
+     *         empty if all copies were sent or buffered.
+     */
+    public List<JID> fanOut(StanzaTemplate template, Collection<JID> recipients) {
+        OutboundRateLimiter limiter = rateLimiter;
+        if (limiter == null) {
+            return writeFanOut(template, recipients);
+        }
+        List<JID> batch = new ArrayList<JID>(recipients);
+        List<String> domains = new ArrayList<String>(batch.size());
+        for (JID recipient : batch) {
+            domains.add(getDomain(recipient));
+        }
+        long start = System.nanoTime();
+        long[] delays = limiter.reserve(domains, -1);
+        List<JID> failed = new ArrayList<JID>();
+        for (List<Integer> group : OutboundRateLimiter.group(delays)) {
+            List<JID> due = new ArrayList<JID>(group.size());
+            long delay = 0;
+            for (Integer index : group) {
+                due.add(batch.get(index));
+                delay = Math.max(delay, delays[index]);
+            }
+            OutboundRateLimiter.await(start, delay);
+            failed.addAll(writeFanOut(template, due));
+        }
+        return failed;
+    }
+
+    /**
+     * Writes a stanza to many recipients at once, buffering the copies if the connection is
+     * down.
+     *
+     * @return the recipients whose copy could not be sent nor buffered, in order.
+     */
+    private List<JID> writeFanOut(StanzaTemplate template, Collection<JID> recipients) {
+        List<JID> failed = new ArrayList<JID>();
+        synchronized (writeLock) {
+            if (reconnecting && outboundBuffer != null && !shutdown) {
+                // Keep the stanzas until the connection has been reestablished
+                for (JID recipient : recipients) {
+                    if (!outboundBuffer.offer(template.createPacket(recipient))) {
+                        failed.add(recipient);
+                    }
+                }
+                if (!failed.isEmpty()) {
+                    Log.warn("Unable to buffer {} stanzas while reconnecting", failed.size());
+                }
+                return failed;
+            }
+            ServerConnection current = connection;
+            int recorded = 0;
+            try {
+                ConnectionWriter writer = current.getWriter();
+                StreamManagement session = current.getStreamManagement();
+                boolean requestAck = false;
+                for (JID recipient : recipients) {
+                    if (session != null) {
+                        requestAck |= write(writer, session, template.toXML(recipient));
+                        recorded++;
+                    }
+                    else {
+                        template.write(writer, recipient);
+                    }
+                }
+                flush(writer, requestAck);
+                // Keep track of the last time a stanza was sent to the server
+                lastActive = System.currentTimeMillis();
+            }
+            catch (IOException e) {
+                // It is unknown which copies reached the server. Those recorded by stream
+                // management will be sent again by it.
+                int index = 0;
+                for (JID recipient : recipients) {
+                    if (index++ < recorded) {
+                        continue;
+                    }
+                    if (shutdown || outboundBuffer == null || !outboundBuffer.offer(template.createPacket(recipient))) {
+                        failed.add(recipient);
+                    }
+                }
+                Log.error("Unable to send stanza to {} recipients ({} not buffered)", recipients.size(), failed.size(), e);
+                if (!shutdown) {
+                    // Connection was lost so try to reconnect
+                    connectionLost();
+                }
+            }
+        }
+        return failed;
+    }
+
+    private static String getDomain(JID address) {
+        return address != null ? address.getDomain() : null;
+    }
+
+    /**
+     * Writes a packet to the specified connection without flushing it. Must be invoked while
+     * holding the write lock.
+     *
+     * @return true if an acknowledgement should be requested before flushing.
+     */
+    private boolean write(ServerConnection current, Packet packet) throws IOException {
+        StreamManagement session = current.getStreamManagement();
+        if (session != null) {
+            // Keep the serialized stanza until the server acknowledges it
+            return write(current.getWriter(), session, packet.toXML());
+        }
+        current.getXmlSerializer().write(packet.getElement());
+        return false;
+    }
+
+    public void initialize(JID jid, ComponentManager componentManager) throws ComponentException {
+        component.initialize(jid, componentManager);
+    }
+
+    public void start() {
+        // Everything went fine so start reading packets from the server
+        connection.startReading(this);
+        if (outboundLanes == null && manager.isOutboundLanesEnabled(subdomain)) {
+            OutboundLanes lanes = new OutboundLanes(this, manager, subdomain);
+            lanes.start();
+            outboundLanes = lanes;
+        }
+        // Notify the component that it will be notified of new received packets
+        component.start();
+        scheduleStandby(0);
+    }
+
+    public void shutdown() {
+        shutdown = true;
+        // Notify the component to shutdown
+        component.shutdown();
+        OutboundLanes lanes = outboundLanes;
+        if (lanes != null) {
+            // Send the stanzas that are still queued before closing the stream
+            lanes.close(5000);
+        }
+        disconnect();
+    }
+
+    /**
+     * Closes the connections of a component that failed to be added, without notifying the
+     * component, which was not initialized.
+     */
+    void abort() {
+        shutdown = true;
+        disconnect();
+    }
+
+    private void disconnect() {
+        threadPool.shutdown();
+        manager.getHousekeeper().unregister(this);
+        ServerConnection current = connection;
+        if (current != null) {
+            synchronized (writeLock) {
+                current.closeStream();
+            }
+        }
+        ServerConnection spare = standby;
+        if (spare != null) {
+            standby = null;
+            spare.closeStream();
+        }
+    }
+
+    /**
+     * Notification message that the connection with the server was lost unexpectedly. We will try
+     * to reestablish the connection for ever until the connection has been reestablished or this
+     * component has been shutdown.<p>
+     *
+     * Reconnection attempts are scheduled with an exponential backoff (see
+     * {@link ExternalComponentManager#setReconnectDelay(long, long, double)}) and run through the
+     * {@link ReconnectCoordinator} of the manager, which limits how many components reconnect at
+     * the same time. This method returns right away and never blocks the calling thread.
+     */
+    public void connectionLost() {
+        // Ensure that only one thread will try to reconnect.
+        synchronized(this) {
+            if (reconnecting) {
+                return;
+            }
+            reconnecting = true;
+        }
+        if (!shutdown && promoteStandby()) {
+            return;
+        }
+        // Stop using the lost connection. The reader thread must not report the closed socket.
+        ServerConnection lost = connection;
+        if (lost != null) {
+            lost.close();
+        }
+        if (!shutdown) {
+            // Notify the component that connection was lost so it needs to shutdown. The component is
+            // still registered in the local component manager but just not connected to the server
+            component.shutdown();
+        }
+        failPendingQueries();
+        scheduleReconnect(0);
+    }
+
+    /**
+     * Schedules an attempt to reestablish the connection with the server.
+     *
+     * @param attempt the number of failed attempts since the connection was lost.
+     */
+    private void scheduleReconnect(int attempt) {
+        if (shutdown) {
+            synchronized (this) {
+                reconnecting = false;
+            }
+            return;
+        }
+        manager.getReconnectCoordinator().schedule(subdomain, manager.getReconnectBackoff().getDelay(attempt),
+                new ReconnectTask(attempt));
+    }
+
+    /**
+     * Notification message that the specified connection with the server was lost. If it was
+     * the connection that is used to send stanzas then the component fails over to the hot
+     * standby or reconnects. If it was the hot standby then a new standby is established.
+     *
+     * @param lost the connection that was lost.
+     */
+    void connectionLost(ServerConnection lost) {
+        if (lost == connection) {
+            connectionLost();
+        }
+        else if (lost == standby) {
+            Log.warn("Hot standby connection of {} was lost", domain);
+            standby = null;
+            lost.close();
+            scheduleStandby(0);
+        }
+    }
+
+    /**
+     * Replaces the failed connection with the hot standby connection, if one is available.
+     * Stanzas that could not be sent on the failed connection are replayed on the standby,
+     * which then takes over all writes. The component is not restarted.
+     *
+     * @return true if the standby took over, false if no standby was available.
+     */
+    private boolean promoteStandby() {
+        final ServerConnection candidate = standby;
+        if (candidate == null || candidate.isClosed()) {
+            return false;
+        }
+        // IDs of the IQ stanzas that were replayed on the standby
+        Set<String> replayedIds = new HashSet<String>();
+        synchronized (writeLock) {
+            ServerConnection failed = connection;
+            connection = candidate;
+            standby = null;
+            // The standby was placed on the next node
+            failover++;
+            if (failed != null) {
+                failed.close();
+            }
+            idGenerator = new StanzaIdGenerator();
+            // The standby starts with a clean keep alive state
+            candidate.received();
+            missedPings = 0;
+            pingOutstanding = false;
+            long pingInterval = manager.getPingInterval();
+            nextKeepAlive = candidate.getLastReceived() + (pingInterval > 0 ? pingInterval : 15000);
+            StreamManagement session = streamManagement;
+            if (session != null && failed != null && failed.getStreamManagement() != null) {
+                // The standby does not take part in the stream management session, which is
+                // given up. The server may or may not have received the unacknowledged stanzas.
+                collectUnacked(session.getUnacked());
+                session.start(null);
+            }
+            boolean replayed = replayUnackedStanzas(replayedIds) && replayOutboundBuffer(replayedIds);
+            synchronized (this) {
+                reconnecting = false;
+            }
+            if (!replayed) {
+                // The standby failed as well
+                connectionLost();
+                return true;
+            }
+        }
+        Log.info("Connection of {} failed over to the hot standby connection", domain);
+        failPendingQueries();
+        resendPendingQueries(replayedIds);
+        scheduleStandby(0);
+        return true;
+    }
+
+    /**
+     * Schedules the establishment of a hot standby connection if the manager was configured to
+     * keep one for the subdomain of this component and no standby exists yet.
+     *
+     * @param attempt the number of failed attempts to establish the standby.
+     */
+    private void scheduleStandby(int attempt) {
+        if (shutdown || !manager.isHotStandbyEnabled(subdomain)) {
+            return;
+        }
+        synchronized (this) {
+            if (standby != null || (standbyPending && attempt == 0)) {
+                return;
+            }
+            standbyPending = true;
+        }
+        manager.getReconnectCoordinator().schedule(subdomain, manager.getReconnectBackoff().getDelay(attempt),
+                new StandbyTask(attempt));
+    }
+    /**
+     * Sends again the stanzas that the server did not acknowledge before the previous connection
+     * was lost. Must be invoked while holding the write lock.
+     *
+     * @param replayedIds receives the IDs of the IQ stanzas that were sent.
+     * @return true if the stanzas were sent, false if the connection failed.
+     */
+    private boolean replayUnackedStanzas(Set<String> replayedIds) {
+        List<String> unacked = unackedStanzas;
+        unackedStanzas = null;
+        if (unacked == null || unacked.isEmpty()) {
+            return true;
+        }
+        StreamManagement session = connection.getStreamManagement();
+        int recorded = 0;
+        try {
+            Writer writer = connection.getWriter();
+            boolean requestAck = false;
+            for (String stanza : unacked) {
+                requestAck |= write(writer, session, stanza);
+                if (session != null) {
+                    recorded++;
+                }
+                addIQId(stanza, replayedIds);
+            }
+            flush(writer, requestAck);
+            lastActive = System.currentTimeMillis();
+        }
+        catch (IOException e) {
+            Log.error("Unable to resend unacknowledged stanzas", e);
+            // The stanzas recorded by the session are kept by it, the others are not kept
+            // anywhere else
+            unackedStanzas = new ArrayList<String>(unacked.subList(recorded, unacked.size()));
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Sends the stanzas that were buffered while the connection was down, in the order in which
+     * they were buffered. Must be invoked while holding the write lock.
+     *
+     * @param replayedIds receives the IDs of the IQ stanzas that were sent.
+     * @return true if the buffer was replayed completely, false if the connection failed.
+     */
+    private boolean replayOutboundBuffer(Set<String> replayedIds) {
+        OutboundBuffer buffer = outboundBuffer;
+        if (buffer == null) {
+            return true;
+        }
+        int replayed = 0;
+        try {
+            Writer writer = connection.getWriter();
+            StreamManagement session = connection.getStreamManagement();
+            String stanza;
+            boolean requestAck = false;
+            while ((stanza = buffer.peek()) != null) {
+                requestAck |= write(writer, session, stanza);
+                // A stanza recorded by the session is kept by it
+                buffer.remove();
+                replayed++;
+                addIQId(stanza, replayedIds);
+            }
+            flush(writer, requestAck);
+            lastActive = System.currentTimeMillis();
+        }
+        catch (IOException e) {
+            Log.error("Unable to replay buffered stanzas", e);
+            return false;
+        }
+        if (replayed > 0) {
+            Log.debug("Replayed {} buffered stanzas", replayed);
+        }
+        return true;
+    }
+
+    /**
+     * Adds the ID of a serialized stanza to the specified set if the stanza is an IQ. Only the
+     * start tag of the stanza is looked at.
+     */
+    private static void addIQId(String stanza, Set<String> ids) {
+        if (!stanza.startsWith("<iq ")) {
+            return;
+        }
+        int end = stanza.indexOf('>');
+        int start = stanza.indexOf(" id=");
+        if (start < 0 || start > end) {
+            return;
+        }
+        char quote = stanza.charAt(start + 4);
+        int close = stanza.indexOf(quote, start + 5);
+        if (close > 0 && close < end) {
+            ids.add(stanza.substring(start + 5, close));
+        }
+    }
+
+    /**
+     * Returns the buffer that holds the stanzas that are sent while the connection with the
+     * server is down or <tt>null</tt> if those stanzas are lost.
+     *
+     * @return the buffer of stanzas sent while the connection is down or null if none.
+     */
+    public OutboundBuffer getOutboundBuffer() {
+        return outboundBuffer;
+    }
+
+    /**
+     * Sets the buffer that holds the stanzas that are sent while the connection with the
+     * server is down. Buffered stanzas are sent, in order, once the connection has been
+     * reestablished. A <tt>null</tt> value means that those stanzas are lost.
+     *
+     * @param outboundBuffer the buffer of stanzas sent while the connection is down or null.
+     */
+    public void setOutboundBuffer(OutboundBuffer outboundBuffer) {
+        this.outboundBuffer = outboundBuffer;
+    }
+
+    /**
+     * Adds an {@link IQResultListener} that will be invoked when an IQ result is sent to the
+     * server itself and is of type result or error. This is a nice way for the server to
+     * send IQ packets to other XMPP entities and be waked up when a response is received back.<p>
+     *
+     * Once an IQ result was received, the listener will be invoked and removed from
+     * the list of listeners.
+     *
+     * @param id the id of the IQ packet being sent from the server to an XMPP entity.
+     * @param listener the IQResultListener that will be invoked when an answer is received
+     * @param timeoutmillis The amount of milliseconds after which waiting for a response should be stopped.
+     * @throws ComponentException if the maximum number of pending queries has been reached.
+     */
+    void addIQResultListener(String id, IQResultListener listener, long timeoutmillis) throws ComponentException {
+        addPendingQuery(new PendingQuery(id, id, listener, System.currentTimeMillis() + timeoutmillis, null,
+                manager.getPendingQueryPolicy()));
+    }
+
+    /**
+     * Adds an {@link IQResultListener} that will be invoked when an answer to the specified
+     * IQ packet is received. If the connection with the server is lost before the answer was
+     * received then the query is handled according to the specified policy.<p>
+     *
+     * The number of queries that can wait for an answer at the same time may be limited in
+     * total and by target address. When no slot is available then the calling thread waits up
+     * to {@link ExternalComponentManager#getPendingQueryWaitTime()} for one to become free.<p>
+     *
+     * The packet is sent with its own ID while the listener is notified using the ID that the
+     * caller gave to the query, so that a query can be sent with an ID from
+     * {@link #nextStanzaId()} without the caller noticing.
+     *
+     * @param packet the IQ packet that is being sent, used to resend the packet after a reconnection.
+     * @param callerId the id that the caller gave to the query.
+     * @param listener the IQResultListener that will be invoked when an answer is received
+     * @param timeoutmillis The amount of milliseconds after which waiting for a response should be stopped.
+     * @param policy what to do with the query if the connection is lost.
+     * @throws ComponentException if no slot for the query became available in time.
+     */
+    void addPendingQuery(IQ packet, String callerId, IQResultListener listener, long timeoutmillis,
+            PendingQueryPolicy policy) throws ComponentException {
+        addPendingQuery(new PendingQuery(packet.getID(), callerId, listener,
+                System.currentTimeMillis() + timeoutmillis, packet, policy));
+    }
+
+    private void addPendingQuery(PendingQuery query) throws ComponentException {
+        int maxTotal = manager.getMaxPendingQueries();
+        int maxPerTarget = manager.getMaxPendingQueriesPerTarget();
+        // Queries are only counted by the budget while it is limited
+        if (maxTotal > 0 || maxPerTarget > 0) {
+            try {
+                if (!pendingQueryBudget.acquire(query.getTarget(), maxTotal, maxPerTarget,
+                        manager.getPendingQueryWaitTime())) {
+                    throw new ComponentException("Too many pending queries to " +
+                            (query.getTarget() != null ? query.getTarget() : domain));
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ComponentException("Interrupted while waiting to send query " + query.getId(), e);
+            }
+            query.setBudgeted(true);
+        }
+        registerPendingQuery(query);
+    }
+
+    /**
+     * Adds a query to the pending queries, without taking a slot of the budget.
+     */
+    private void registerPendingQuery(PendingQuery query) {
+        PendingQuery previous = pendingQueries.put(query.getId(), query);
+        if (previous != null) {
+            // The ID was reused before an answer arrived. The previous query will never be
+            // answered so its listener is told that it timed out.
+            releaseBudget(previous);
+            notifyTimeout(previous);
+        }
+    }
+
+    /**
+     * Frees the slot of the budget that was taken by a query that is no longer pending.
+     */
+    private void releaseBudget(PendingQuery query) {
+        if (query.isBudgeted()) {
+            pendingQueryBudget.release(query.getTarget());
+        }
+    }
+
+    /**
+     * Notifies the listener of a query that was removed from the pending queries that it timed
+     * out. The listener is notified by the {@link TaskEngine}, so that the calling thread is not
+     * held up by a slow listener.
+     */
+    private static void notifyTimeout(final PendingQuery query) {
+        TaskEngine.getInstance().submit(new Runnable() {
+            public void run() {
+                try {
+                    query.answerTimeout();
+                }
+                catch (Exception e) {
+                    Log.error("Error notifying the timeout of a query", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the number of queries sent by this component that are waiting for an answer.
+     *
+     * @return the number of queries that are waiting for an answer.
+     */
+    public int getPendingQueryCount() {
+        return pendingQueries.size();
+    }
+
+    /**
+     * Returns the number of queries sent by this component to the specified address that are
+     * waiting for an answer.
+     *
+     * @param target the address the queries were sent to.
+     * @return the number of queries to the address that are waiting for an answer.
+     */
+    public int getPendingQueryCount(JID target) {
+        String address = target != null ? target.toString() : null;
+        int count = 0;
+        for (PendingQuery query : pendingQueries.values()) {
+            if (address != null ? address.equals(query.getTarget()) : query.getTarget() == null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Drops the pending queries that must not survive a lost connection and notifies their
+     * listeners.
+     */
+    private void failPendingQueries() {
+        final Iterator<PendingQuery> it = pendingQueries.values().iterator();
+        while (it.hasNext()) {
+            final PendingQuery query = it.next();
+            if (query.isFailFast() && pendingQueries.remove(query.getId(), query)) {
+                releaseBudget(query);
+                try {
+                    query.connectionLost();
+                }
+                catch (Exception e) {
+                    Log.error("Error notifying lost connection to listener", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sends again the pending queries that were configured to be resent once the connection
+     * with the server has been reestablished. Queries whose stanza was already replayed from
+     * the unacknowledged stanzas or the outbound buffer are not sent twice.
+     *
+     * @param replayedIds the IDs of the IQ stanzas that were replayed on the new connection.
+     */
+    private void resendPendingQueries(Set<String> replayedIds) {
+        for (PendingQuery query : pendingQueries.values()) {
+            if (query.isResendable() && !replayedIds.contains(query.getId())) {
+                send(query.getPacket());
+            }
+        }
+    }
+
+    /**
+     * A task that tries once to reestablish the connection with the server. If the attempt
+     * fails then the next attempt is scheduled.
+     */
+    private class ReconnectTask implements Runnable {
+
+        private final int attempt;
+
+        ReconnectTask(int attempt) {
+            this.attempt = attempt;
+        }
+
+        public void run() {
+            if (shutdown) {
+                scheduleReconnect(attempt);
+                return;
+            }
+            try {
+                connect(host, port, subdomain, startEncrypted);
+            }
+            catch (ComponentException e) {
+                Log.error("Error trying to reconnect with the server (attempt {})", attempt + 1, e);
+                scheduleReconnect(attempt + 1);
+                return;
+            }
+            // It may be possible that while a new connection was being established the
+            // component was required to shutdown so in this case we need to close the new
+            // connection
+            if (shutdown) {
+                disconnect();
+                synchronized (ExternalComponent.this) {
+                    reconnecting = false;
+                }
+                return;
+            }
+            // Component is back again working so start it up again
+            start();
+            // IDs of the IQ stanzas that were replayed on the new connection
+            Set<String> replayedIds = new HashSet<String>();
+            synchronized (writeLock) {
+                // Unacknowledged stanzas were sent before the buffered ones
+                boolean replayed = replayUnackedStanzas(replayedIds) && replayOutboundBuffer(replayedIds);
+                synchronized (ExternalComponent.this) {
+                    reconnecting = false;
+                }
+                if (!replayed) {
+                    // The new connection failed as well. The stanzas that were not replayed
+                    // remain in the buffer.
+                    connectionLost();
+                    return;
+                }
+            }
+            resendPendingQueries(replayedIds);
+        }
+    }
+
+    /**
+     * A task that tries once to establish a hot standby connection with the server. If the
+     * attempt fails then the next attempt is scheduled.
+     */
+    private class StandbyTask implements Runnable {
+
+        private final int attempt;
+
+        StandbyTask(int attempt) {
+            this.attempt = attempt;
+        }
+
+        public void run() {
+            if (shutdown) {
+                return;
+            }
+            ServerConnection candidate = new ServerConnection(manager);
+            try {
+                candidate.open(getEndpoint(1), subdomain, domain, startEncrypted);
+            }
+            catch (ComponentException e) {
+                Log.warn("Error trying to establish a hot standby connection (attempt {})", attempt + 1, e);
+                scheduleStandby(attempt + 1);
+                return;
+            }
+            synchronized (ExternalComponent.this) {
+                standbyPending = false;
+                if (shutdown || standby != null) {
+                    candidate.closeStream();
+                    return;
+                }
+                standby = candidate;
+            }
+            // The server may route stanzas over any connection of the subdomain
+            candidate.startReading(ExternalComponent.this);
+        }
+    }
+
+    /**
+     * Performs the periodic work of this component. Invoked by the {@link Housekeeper} of the
+     * manager on every tick. Expires the queries that timed out and, when due, keeps the
+     * connection alive. Only the bookkeeping runs on the housekeeping thread: the listeners of
+     * expired queries and the keep alive, which may lose the connection and shut down the
+     * component, run on the {@link TaskEngine}, so that a slow listener or connection does not
+     * delay the housekeeping of the other components.
+     *
+     * @param now the current time in milliseconds.
+     */
+    void housekeep(long now) {
+        if (!pendingQueries.isEmpty()) {
+            expirePendingQueries(now);
+        }
+        if (shutdown || reconnecting || now < nextKeepAlive) {
+            return;
+        }
+        long pingInterval = manager.getPingInterval();
+        nextKeepAlive = now + (pingInterval > 0 ? pingInterval : 30000);
+        TaskEngine.getInstance().submit(keepAlive);
+    }
+
+    /**
+     * Keeps connections to the server alive by sending a space character when the connection
+     * has been idle or an XMPP ping when the server has been silent.
+     */
+    private class KeepAlive implements Runnable {
+
+        private final Logger Log = LoggerFactory.getLogger(KeepAlive.class);
+
+        public void run() {
+            if (shutdown || reconnecting) {
+                return;
+            }
+            keepStandbyAlive();
+            requestAck();
+            if (manager.getPingInterval() > 0) {
+                ping();
+                return;
+            }
+            synchronized (writeLock) {
+                Writer writer = connection.getWriter();
+                // Send heartbeat if no packet has been sent to the server for a given time
+                if (System.currentTimeMillis() - lastActive >= 30000) {
+                    try {
+                        writer.write(" ");
+                        writer.flush();
+                    }
+                    catch (IOException e) {
+                        // Log the exception
+                        Log.error("Unable to send a whitespace ping.", e);
+                        if (!shutdown) {
+                            // Connection was lost so try to reconnect
+                            connectionLost();
+                        }
+                    }
+                    catch (Exception e) {
+                        // Do nothing
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Asks the server to acknowledge the received stanzas if some stanzas were not acknowledged
+     * yet.
+     */
+    private void requestAck() {
+        synchronized (writeLock) {
+            ServerConnection current = connection;
+            StreamManagement session = current.getStreamManagement();
+            if (session == null || session.getUnackedCount() == 0) {
+                return;
+            }
+            try {
+                current.getWriter().write(StreamManagement.ACK_REQUEST);
+                current.getWriter().flush();
+            }
+            catch (IOException e) {
+                Log.error("Unable to request an acknowledgement", e);
+                if (!shutdown) {
+                    connectionLost();
+                }
+            }
+        }
+    }
+
+    /**
+     * Sends a whitespace keep alive over the hot standby connection, which is otherwise idle.
+     */
+    private void keepStandbyAlive() {
+        ServerConnection spare = standby;
+        if (spare == null) {
+            return;
+        }
+        synchronized (writeLock) {
+            try {
+                spare.getWriter().write(" ");
+                spare.getWriter().flush();
+            }
+            catch (IOException e) {
+                connectionLost(spare);
+            }
+        }
+    }
+
+    /**
+     * Sends an XMPP ping (XEP-0199) to the server unless stanzas were received recently or a
+     * ping is still waiting for its answer.
+     */
+    private void ping() {
+        // While reading is paused the answer would not be read in time
+        if (shutdown || reconnecting || pingOutstanding || isInboundPaused()
+                || System.currentTimeMillis() - connection.getLastReceived() < manager.getPingInterval()) {
+            return;
+        }
+        IQ ping = new IQ(IQ.Type.get, nextStanzaId());
+        ping.setFrom(domain);
+        ping.setTo(manager.getServerName() != null ? manager.getServerName() : getServerDomain());
+        ping.setChildElement("ping", "urn:xmpp:ping");
+        // Pings do not take a slot of the budget of pending queries, so that a full budget does
+        // not stop the detection of a dead connection
+        registerPendingQuery(new PendingQuery(ping.getID(), ping.getID(),
+                new PingListener(System.currentTimeMillis()),
+                System.currentTimeMillis() + manager.getPingInterval(), ping, PendingQueryPolicy.FAIL));
+        pingOutstanding = true;
+        // Write the ping right away, the housekeeping thread must not wait for room in the
+        // outbound lanes or for the rate limits
+        write(ping);
+    }
+
+    /**
+     * Returns the domain of the server based on the domain of this component, which is
+     * composed by the subdomain plus the domain of the server.
+     */
+    private String getServerDomain() {
+        int index = domain.indexOf('.');
+        return index > -1 ? domain.substring(index + 1) : domain;
+    }
+
+    /**
+     * Records the round trip time of an answered XMPP ping and declares the server dead when
+     * too many pings in a row were not answered.
+     */
+    private class PingListener implements DisconnectAwareIQResultListener {
+
+        private final long sent;
+
+        PingListener(long sent) {
+            this.sent = sent;
+        }
+
+        public void receivedAnswer(IQ packet) {
+            // Even an error proves that the server is alive
+            long roundTrip = System.currentTimeMillis() - sent;
+            lastPingRoundTrip = roundTrip;
+            averagePingRoundTrip = averagePingRoundTrip < 0 ? roundTrip : (averagePingRoundTrip * 7 + roundTrip) / 8;
+            missedPings = 0;
+            pingOutstanding = false;
+        }
+
+        public void answerTimeout(String packetId) {
+            pingOutstanding = false;
+            if (isInboundPaused()) {
+                // The answer may be waiting unread in the socket
+                return;
+            }
+            int missed = ++missedPings;
+            if (missed >= manager.getMaxMissedPings() && !shutdown) {
+                Log.warn("Server did not answer {} XMPP pings in a row. Considering the connection lost.", missed);
+                ExternalComponent.this.connectionLost();
+            }
+        }
+
+        public void connectionLost(String packetId) {
+            pingOutstanding = false;
+        }
+    }
+
+    /**
+     * Removes the listeners that wait for results to IQ stanzas that have timed out and
+     * notifies them of the timeout. Time out values can be set to each listener individually
+     * by adjusting the timeout value in the fourth parameter of
+     * {@link ExternalComponent#addPendingQuery(IQ, String, IQResultListener, long, PendingQueryPolicy)}.
+     *
+     * @param now the current time in milliseconds.
+     */
+    private void expirePendingQueries(long now) {
+        // Use an Iterator to allow changes to the Map that is backing the Iterator.
+        final Iterator<PendingQuery> it = pendingQueries.values().iterator();
+        while (it.hasNext()) {
+            final PendingQuery query = it.next();
+
+            if (!query.isExpired(now)) {
+                // This entry has not expired yet. Ignore it.
+                continue;
+            }
+
+            // remove this listener from the list (unless an answer arrived in the meantime)
+            if (!pendingQueries.remove(query.getId(), query)) {
+                continue;
+            }
+            releaseBudget(query);
+            // Notify the listener of the timeout outside of the housekeeping thread, which is
+            // shared by all components and must not be held up by a slow listener
+            notifyTimeout(query);
+        }
+    }
 }
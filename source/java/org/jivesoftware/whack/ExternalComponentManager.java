@@ -16,12 +16,28 @@
 
 package org.jivesoftware.whack;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.prefs.Preferences;
+import java.util.zip.Deflater;
 
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+
+import org.jivesoftware.whack.util.ExponentialBackoff;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xmpp.component.Component;
@@ -42,6 +58,11 @@ import org.xmpp.packet.Packet;
 public class ExternalComponentManager implements ComponentManager {
 
 	private static final Logger Logger = LoggerFactory.getLogger(ExternalComponentManager.class);
+
+    /**
+     * Marker used by the blocking query to signal that the connection was lost.
+     */
+    private static final IQ CONNECTION_LOST = new IQ();
 	
     /**
      * Keeps the IP address or hostname of the server. This value will be used only for creating
@@ -68,6 +89,37 @@ public class ExternalComponentManager implements ComponentManager {
      * Timeout to use when trying to connect to the server.
      */
     private int connectTimeout = 2000;
+    /**
+     * Context used to encrypt connections or null to use the default context of the JVM.
+     */
+    private volatile SSLContext sslContext;
+    /**
+     * The last TLS session established with each node of the server, by node.
+     */
+    private final Map<String, SSLSession> tlsSessions = new ConcurrentHashMap<String, SSLSession>();
+    /**
+     * Races connection attempts across the addresses of the server.
+     */
+    private final HappyEyeballsConnector connector = new HappyEyeballsConnector();
+    /**
+     * Time (in milliseconds) between the start of two connection attempts to different
+     * addresses of the server.
+     */
+    private long connectStaggerDelay = 250;
+    /**
+     * Places the components on the nodes of a server cluster or null if all components connect
+     * to {@link #host} and {@link #port}.
+     */
+    private volatile ConsistentHashRing serverRing;
+    /**
+     * Number of failed connection attempts in a row after which a component moves to the next
+     * node of the cluster.
+     */
+    private int maxEndpointFailures = 3;
+    /**
+     * Maximum number of components that {@link #addComponents(Map)} connects at the same time.
+     */
+    private int maxConcurrentConnects = 16;
     /**
      * This is a global secret key that will be used during the handshake with the server. If a
      * secret key was not defined for the specific component then the global secret key will be
@@ -85,6 +137,74 @@ public class ExternalComponentManager implements ComponentManager {
      * with any other XMPP server. Other servers should ignore this setting.
      */
     private Map<String, Boolean> allowMultiple = new Hashtable<String,Boolean>();
+    /**
+     * Holds the settings for whether a component keeps a second, idle connection with the server
+     * that takes over as soon as its connection fails. Requires multiple connections to be allowed.
+     */
+    private Map<String, Boolean> hotStandby = new Hashtable<String,Boolean>();
+    /**
+     * Keeps the subdomains whose streams are compressed (XEP-0138).
+     */
+    private Map<String, Boolean> compression = new Hashtable<String,Boolean>();
+    /**
+     * Keeps the subdomains that connect using the stream features of XEP-0225.
+     */
+    private Map<String, Boolean> streamFeatures = new Hashtable<String,Boolean>();
+    /**
+     * Keeps the keys derived from the secret keys by SCRAM-SHA-1.
+     */
+    private final ScramCredentialCache scramCredentialCache = new ScramCredentialCache();
+    /**
+     * Keeps the subdomains that use stream management (XEP-0198).
+     */
+    private Map<String, Boolean> streamManagement = new Hashtable<String,Boolean>();
+    /**
+     * Number of stanzas after which components request an acknowledgement from the server.
+     */
+    private int ackRequestInterval = 5;
+    /**
+     * Maximum number of unacknowledged stanzas that each component keeps for resending.
+     */
+    private int maxUnackedStanzas = 1000;
+    /**
+     * Flush mode of compressed streams: Deflater.SYNC_FLUSH or Deflater.FULL_FLUSH.
+     */
+    private int compressionFlushMode = Deflater.SYNC_FLUSH;
+    /**
+     * Keeps the buffers that hold the stanzas that components send while their connection is
+     * down. Components without a buffer lose those stanzas.
+     */
+    private Map<String, OutboundBuffer> outboundBuffers = new Hashtable<String,OutboundBuffer>();
+    /**
+     * Keeps the subdomains whose components queue outbound stanzas in lanes by kind.
+     */
+    private Map<String, Boolean> outboundLanes = new Hashtable<String,Boolean>();
+    /**
+     * Keeps the subdomains whose components coalesce the received presences of an address.
+     */
+    private Map<String, Boolean> presenceCoalescing = new Hashtable<String,Boolean>();
+    /**
+     * Weight of the outbound lane of each kind of stanza, by the ordinal of the kind.
+     */
+    private final int[] outboundLaneWeights = {8, 4, 2, 1};
+    /**
+     * Maximum number of stanzas that each outbound lane holds.
+     */
+    private int outboundLaneCapacity = 10000;
+    /**
+     * Maximum rate (in stanzas per second) and burst size of the stanzas that each component
+     * sends, in total and to each destination domain. A rate of 0 means no limit.
+     */
+    private double outboundRateLimit = 0;
+    private int outboundBurstSize = 0;
+    private double domainOutboundRateLimit = 0;
+    private int domainOutboundBurstSize = 0;
+    /**
+     * Number of received stanzas waiting to be processed at which components stop reading from
+     * the server and at which they resume reading. A high watermark of 0 means no limit.
+     */
+    private int inboundHighWatermark = 0;
+    private int inboundLowWatermark = 0;
 
     Preferences preferences = Preferences.userRoot();
     private String preferencesPrefix;
@@ -97,6 +217,68 @@ public class ExternalComponentManager implements ComponentManager {
      * Keeps a map that associates a component with the wrapping ExternalComponent.
      */
     private Map<Component, ExternalComponent> components  = new Hashtable<Component,ExternalComponent>();
+    /**
+     * Keeps track of the IQ gets that are in flight when query coalescing is enabled.
+     */
+    private final IQCoalescer coalescer = new IQCoalescer();
+    /**
+     * Keeps answers to IQ gets of the namespaces that were configured to be cached.
+     */
+    private final IQResultCache queryCache = new IQResultCache();
+    /**
+     * Defines if identical IQ gets that are sent at the same time share a single request.
+     */
+    private boolean queryCoalescingEnabled = false;
+    /**
+     * Defines what happens by default to queries that are waiting for an answer when the
+     * connection with the server is lost.
+     */
+    private PendingQueryPolicy pendingQueryPolicy = PendingQueryPolicy.WAIT;
+    /**
+     * Maximum number of queries per component, and per component and target address, that may
+     * be waiting for an answer at the same time. Zero means no limit.
+     */
+    private int maxPendingQueries = 0;
+    private int maxPendingQueriesPerTarget = 0;
+    /**
+     * Time (in milliseconds) that a new query waits for a slot when the limit has been reached.
+     */
+    private long pendingQueryWaitTime = 0;
+    /**
+     * Delays between attempts to reconnect a component whose connection was lost.
+     */
+    private volatile ExponentialBackoff reconnectBackoff = new ExponentialBackoff(1000, 60000, 0.2);
+    /**
+     * Limits and orders the reconnection attempts of all components.
+     */
+    private final ReconnectCoordinator reconnectCoordinator = new ReconnectCoordinator(this);
+    /**
+     * Performs the keep alives and query timeouts of all components from a single task.
+     */
+    private final Housekeeper housekeeper = new Housekeeper();
+    /**
+     * Keeps the priority of each subdomain when reconnecting. Subdomains with a higher priority
+     * reconnect first. Subdomains without a priority have priority 0.
+     */
+    private Map<String, Integer> reconnectPriorities = new Hashtable<String,Integer>();
+    /**
+     * Maximum number of components that may try to reconnect at the same time.
+     */
+    private int maxConcurrentReconnects = 4;
+    /**
+     * Minimum time (in milliseconds) between the start of two reconnection attempts.
+     */
+    private long reconnectInterval = 100;
+    /**
+     * Time (in milliseconds) without inbound traffic after which an XMPP ping is sent to the
+     * server, or 0 to send whitespace keep alives instead.
+     */
+    private long pingInterval = 0;
+    /**
+     * Number of consecutive XMPP pings that may go unanswered before the connection is
+     * considered lost.
+     */
+    private int maxMissedPings = 3;
 
     /**
      * Constructs a new ExternalComponentManager that will make connections
@@ -206,143 +388,1307 @@ public class ExternalComponentManager implements ComponentManager {
         this.allowMultiple.put(subdomain, allowMultiple);
     }
 
-    public void addComponent(String subdomain, Component component) throws ComponentException {
-        addComponent(subdomain, component, this.port);
+    /**
+     * Returns true if the component of the subdomain keeps a hot standby connection with the
+     * server. A hot standby is only kept if multiple connections are allowed for the subdomain.
+     *
+     * @param subdomain the sub-domain.
+     * @return true if the component of the subdomain keeps a hot standby connection.
+     */
+    public boolean isHotStandbyEnabled(String subdomain) {
+        Boolean enabled = hotStandby.get(subdomain);
+        return enabled != null && enabled && isMultipleAllowed(subdomain);
     }
 
-    public void addComponent(String subdomain, Component component, Integer port) throws ComponentException {
-        if (componentsByDomain.containsKey(subdomain)) {
-            if (componentsByDomain.get(subdomain).getComponent() == component) {
-                // Do nothing since the component has already been registered
-                return;
-            }
-            else {
-                throw new IllegalArgumentException("Subdomain already in use by another component");
-            }
-        }
-        // Create a wrapping ExternalComponent on the component
-        ExternalComponent externalComponent = new ExternalComponent(component, this);
-        try {
-            // Register the new component
-            componentsByDomain.put(subdomain, externalComponent);
-            components.put(component, externalComponent);
-            // Ask the ExternalComponent to connect with the remote server
-            externalComponent.connect(host, port, subdomain, startEncrypted);
-            // Initialize the component
-            JID componentJID = new JID(null, externalComponent.getDomain(), null);
-            externalComponent.initialize(componentJID, this);
-        }
-        catch (ComponentException e) {
-            // Unregister the new component
-            componentsByDomain.remove(subdomain);
-            components.remove(component);
-            // Re-throw the exception
-            throw e;
-        }
-        // Ask the external component to start processing incoming packets
-        externalComponent.start();
+    /**
+     * Sets whether the component of the subdomain keeps a second connection with the server
+     * that is connected and authenticated in advance. When the connection of the component fails,
+     * the standby takes over right away and the stanzas that could not be sent are moved to it,
+     * after which a new standby is established in the background. Requires multiple connections
+     * to be allowed for the subdomain (see {@link #setMultipleAllowed(String, boolean)}), and an
+     * {@link OutboundBuffer} for stanzas that failed on the lost connection to be moved across.
+     *
+     * @param subdomain the sub-domain.
+     * @param enabled true if the component should keep a hot standby connection.
+     */
+    public void setHotStandbyEnabled(String subdomain, boolean enabled) {
+        hotStandby.put(subdomain, enabled);
     }
 
-    public void removeComponent(String subdomain) throws ComponentException {
-        ExternalComponent externalComponent = componentsByDomain.remove(subdomain);
-        if (externalComponent != null) {
-            components.remove(externalComponent.getComponent());
-            externalComponent.shutdown();
-        }
+    /**
+     * Returns true if the component of the subdomain connects using the stream features of
+     * XEP-0225 instead of the handshake of XEP-0114.
+     *
+     * @param subdomain the sub-domain.
+     * @return true if the component of the subdomain connects using stream features.
+     */
+    public boolean isStreamFeaturesEnabled(String subdomain) {
+        Boolean enabled = streamFeatures.get(subdomain);
+        return enabled != null && enabled;
     }
 
-    public void sendPacket(Component component, Packet packet) {
-        // Get the ExternalComponent that is wrapping the specified component and ask it to
-        // send the packet
-        components.get(component).send(packet);
+    /**
+     * Sets whether the component of the subdomain connects using the component protocol of
+     * XEP-0225 instead of the handshake of XEP-0114. The server then offers stream features:
+     * the connection is encrypted using STARTTLS when offered, unless sockets are started in
+     * TLS/SSL mode, and the component authenticates using SASL SCRAM-SHA-1 with its secret key
+     * as password. The keys derived from the secret key are cached, so reconnections do not pay
+     * for the derivation again. The setting applies to connections established after the change.
+     *
+     * @param subdomain the sub-domain.
+     * @param enabled true if the component should connect using stream features.
+     */
+    public void setStreamFeaturesEnabled(String subdomain, boolean enabled) {
+        streamFeatures.put(subdomain, enabled);
     }
 
-    public IQ query(Component component, IQ packet, long timeout) throws ComponentException {
-        final LinkedBlockingQueue<IQ> answer = new LinkedBlockingQueue<IQ>(8);
-        ExternalComponent externalComponent = components.get(component);
-        externalComponent.addIQResultListener(packet.getID(), new IQResultListener() {
-            public void receivedAnswer(IQ packet) {
-                answer.offer(packet);
-            }
+    /**
+     * Returns true if the component of the subdomain uses stream management (XEP-0198) when
+     * the server offers it.
+     *
+     * @param subdomain the sub-domain.
+     * @return true if the component of the subdomain uses stream management.
+     */
+    public boolean isStreamManagementEnabled(String subdomain) {
+        Boolean enabled = streamManagement.get(subdomain);
+        return enabled != null && enabled;
+    }
 
-            public void answerTimeout(String packetId) {
-                //Do nothing
-            }
-        }, timeout);
-        sendPacket(component, packet);
-        IQ reply = null;
-        try {
-            reply = answer.poll(timeout, TimeUnit.MILLISECONDS);
+    /**
+     * Sets whether the component of the subdomain uses stream management (XEP-0198) when the
+     * server offers it. The server then acknowledges the stanzas it received, and the component
+     * keeps the stanzas that were not acknowledged yet (see {@link #setMaxUnackedStanzas(int)}).
+     * When the connection is lost, the new connection resumes the session and only the stanzas
+     * that the server did not receive are sent again. Servers only offer stream management on
+     * connections that use stream features (see {@link #setStreamFeaturesEnabled(String, boolean)}).
+     *
+     * @param subdomain the sub-domain.
+     * @param enabled true if the component should use stream management.
+     */
+    public void setStreamManagementEnabled(String subdomain, boolean enabled) {
+        streamManagement.put(subdomain, enabled);
+    }
+
+    /**
+     * Returns the number of sent stanzas after which components request an acknowledgement
+     * from the server. The default value is 5.
+     *
+     * @return the number of stanzas after which an acknowledgement is requested.
+     */
+    public int getAckRequestInterval() {
+        return ackRequestInterval;
+    }
+
+    /**
+     * Sets the number of sent stanzas after which components request an acknowledgement from
+     * the server. Components also request an acknowledgement of the remaining stanzas along with
+     * their keep alives.
+     *
+     * @param ackRequestInterval the number of stanzas after which an acknowledgement is requested.
+     */
+    public void setAckRequestInterval(int ackRequestInterval) {
+        if (ackRequestInterval < 1) {
+            throw new IllegalArgumentException("The interval must be at least one stanza");
         }
-        catch (InterruptedException e) {
-            // Ignore
+        this.ackRequestInterval = ackRequestInterval;
+    }
+
+    /**
+     * Returns the maximum number of unacknowledged stanzas that each component keeps to send
+     * them again after a reconnection. The default value is 1000.
+     *
+     * @return the maximum number of unacknowledged stanzas kept by each component.
+     */
+    public int getMaxUnackedStanzas() {
+        return maxUnackedStanzas;
+    }
+
+    /**
+     * Sets the maximum number of unacknowledged stanzas that each component keeps to send them
+     * again after a reconnection. This bounds the memory used and the number of stanzas sent
+     * again. When the limit is reached the oldest unacknowledged stanzas are no longer kept.
+     * The setting applies to components that did not use stream management yet.
+     *
+     * @param maxUnackedStanzas the maximum number of unacknowledged stanzas kept by each component.
+     */
+    public void setMaxUnackedStanzas(int maxUnackedStanzas) {
+        if (maxUnackedStanzas < 1) {
+            throw new IllegalArgumentException("At least one stanza must be kept");
         }
-        return reply;
+        this.maxUnackedStanzas = maxUnackedStanzas;
     }
 
-    public void query(Component component, IQ packet, IQResultListener listener) throws ComponentException {
-        ExternalComponent externalComponent = components.get(component);
-        // Add listenet with a timeout of 5 minutes to prevent memory leaks
-        externalComponent.addIQResultListener(packet.getID(), listener, 300000);
-        sendPacket(component, packet);
+    /**
+     * Returns the cache of the keys derived from the secret keys by SCRAM-SHA-1.
+     *
+     * @return the cache of SCRAM-SHA-1 keys.
+     */
+    ScramCredentialCache getScramCredentialCache() {
+        return scramCredentialCache;
     }
 
-    public String getProperty(String name) {
-        return preferences.get(getPreferencesPrefix() + name, null);
+    /**
+     * Returns true if the component of the subdomain asks the server to compress its stream.
+     *
+     * @param subdomain the sub-domain.
+     * @return true if the stream of the component is compressed when the server supports it.
+     */
+    public boolean isCompressionEnabled(String subdomain) {
+        Boolean enabled = compression.get(subdomain);
+        return enabled != null && enabled;
     }
 
-    public void setProperty(String name, String value) {
-        preferences.put(getPreferencesPrefix() + name, value);
+    /**
+     * Sets whether the component of the subdomain asks the server to compress its stream using
+     * zlib (XEP-0138) after the handshake. Compression trades CPU time for bandwidth and pays off
+     * for components that exchange large stanzas over slow links. If the server refuses to
+     * compress the stream then the stream stays uncompressed. Only enable compression for
+     * servers that accept compression requests on component streams, since other servers may
+     * close the stream instead. The setting applies to connections established after the change.
+     *
+     * @param subdomain the sub-domain.
+     * @param enabled true if the stream of the component should be compressed.
+     */
+    public void setCompressionEnabled(String subdomain, boolean enabled) {
+        compression.put(subdomain, enabled);
     }
 
-    private String getPreferencesPrefix() {
-        if (preferencesPrefix == null) {
-            preferencesPrefix = "whack." + domain + ".";
+    /**
+     * Returns the flush mode of compressed streams. The default value is
+     * {@link Deflater#SYNC_FLUSH}.
+     *
+     * @return {@link Deflater#SYNC_FLUSH} or {@link Deflater#FULL_FLUSH}.
+     */
+    public int getCompressionFlushMode() {
+        return compressionFlushMode;
+    }
+
+    /**
+     * Sets the flush mode of compressed streams, which is used every time stanzas are sent.
+     * {@link Deflater#SYNC_FLUSH} keeps the compression dictionary between stanzas and gives the
+     * best compression. {@link Deflater#FULL_FLUSH} resets the dictionary on every flush, which
+     * compresses less but does not let the size of a stanza depend on previous stanzas.
+     *
+     * @param compressionFlushMode {@link Deflater#SYNC_FLUSH} or {@link Deflater#FULL_FLUSH}.
+     */
+    public void setCompressionFlushMode(int compressionFlushMode) {
+        if (compressionFlushMode != Deflater.SYNC_FLUSH && compressionFlushMode != Deflater.FULL_FLUSH) {
+            throw new IllegalArgumentException("Unsupported flush mode: " + compressionFlushMode);
         }
-        return preferencesPrefix;
+        this.compressionFlushMode = compressionFlushMode;
     }
 
     /**
-     * Sets the domain of the XMPP server. The domain may or may not match the host. The domain
-     * will be used mainly for the XMPP packets while the host is used mainly for creating
-     * connections to the server.
+     * Returns the buffer that holds the stanzas that the component of the subdomain sends
+     * while its connection with the server is down or <tt>null</tt> if those stanzas are lost.
      *
-     * @param domain the domain of the XMPP server.
+     * @param subdomain the sub-domain.
+     * @return the buffer of stanzas sent while the connection is down or null if none.
      */
-    public void setServerName(String domain) {
-        this.domain = domain;
+    public OutboundBuffer getOutboundBuffer(String subdomain) {
+        return outboundBuffers.get(subdomain);
     }
 
     /**
-     * Returns the domain of the XMPP server where we are connected to or <tt>null</tt> if
-     * this value was never configured. When the value is null then the component will
-     * register with just its subdomain and we expect the server to accept the component and
-     * append its domain to form the JID of the component.
+     * Sets the buffer that holds the stanzas that the component of the subdomain sends while
+     * its connection with the server is down, e.g. a {@link MemoryOutboundBuffer} or a
+     * {@link JournalOutboundBuffer}. Buffered stanzas are sent in order once the connection has
+     * been reestablished. By default no buffer is used and those stanzas are lost.
      *
-     * @return the domain of the XMPP server or null if never configured.
+     * @param subdomain the sub-domain.
+     * @param buffer the buffer of stanzas sent while the connection is down or null for none.
      */
-    public String getServerName() {
-        return domain;
+    public void setOutboundBuffer(String subdomain, OutboundBuffer buffer) {
+        if (buffer == null) {
+            outboundBuffers.remove(subdomain);
+        }
+        else {
+            outboundBuffers.put(subdomain, buffer);
+        }
+        ExternalComponent externalComponent = componentsByDomain.get(subdomain);
+        if (externalComponent != null) {
+            externalComponent.setOutboundBuffer(buffer);
+        }
     }
 
     /**
-     * Returns the timeout (in milliseconds) to use when trying to connect to the server.
-     * The default value is 2 seconds.
+     * Returns true if the component of the subdomain queues the stanzas it sends in lanes by
+     * kind of stanza.
      *
-     * @return the timeout to use when trying to connect to the server.
+     * @param subdomain the sub-domain.
+     * @return true if the component of the subdomain uses outbound lanes.
      */
-    public int getConnectTimeout() {
-        return connectTimeout;
+    public boolean isOutboundLanesEnabled(String subdomain) {
+        Boolean enabled = outboundLanes.get(subdomain);
+        return enabled != null && enabled;
     }
 
     /**
-     * Sets the timeout (in milliseconds) to use when trying to connect to the server.
-     * The default value is 2 seconds.
+     * Sets whether the component of the subdomain queues the stanzas it sends in one lane per
+     * {@link StanzaKind} instead of writing them from the sending thread. A writer thread serves
+     * the lanes by weighted round-robin (see {@link #setOutboundLaneWeight(StanzaKind, int)}),
+     * so that answers to IQ requests are not stuck behind a burst of messages. The setting
+     * applies to components that are added after it was changed.
      *
-     * @param connectTimeout the timeout, in milliseconds, to use when trying to connect to the server.
+     * @param subdomain the sub-domain.
+     * @param enabled true if the component should use outbound lanes.
      */
-    public void setConnectTimeout(int connectTimeout) {
-        this.connectTimeout = connectTimeout;
+    public void setOutboundLanesEnabled(String subdomain, boolean enabled) {
+        outboundLanes.put(subdomain, enabled);
+    }
+
+    /**
+     * Returns the number of stanzas of the specified kind that may be sent from its outbound
+     * lane in each round. By default IQ responses have a weight of 8, IQ requests 4, messages 2
+     * and presences 1.
+     *
+     * @param kind the kind of stanzas.
+     * @return the weight of the lane.
+     */
+    public int getOutboundLaneWeight(StanzaKind kind) {
+        return outboundLaneWeights[kind.ordinal()];
+    }
+
+    /**
+     * Sets the number of stanzas of the specified kind that may be sent from its outbound lane
+     * in each round of the weighted round-robin. Lanes with a higher weight get a larger share
+     * of the connection when several lanes have stanzas queued.
+     *
+     * @param kind the kind of stanzas.
+     * @param weight the weight of the lane.
+     */
+    public void setOutboundLaneWeight(StanzaKind kind, int weight) {
+        if (weight < 1) {
+            throw new IllegalArgumentException("The weight of a lane must be at least one");
+        }
+        outboundLaneWeights[kind.ordinal()] = weight;
+    }
+
+    /**
+     * Returns the maximum number of stanzas that each outbound lane of a component holds. The
+     * default value is 10000.
+     *
+     * @return the maximum number of stanzas in an outbound lane.
+     */
+    public int getOutboundLaneCapacity() {
+        return outboundLaneCapacity;
+    }
+
+    /**
+     * Sets the maximum number of stanzas that each outbound lane of a component holds. Threads
+     * that send a stanza while its lane is full wait until the writer thread of the component
+     * made room. The setting applies to components that are added after it was changed.
+     *
+     * @param outboundLaneCapacity the maximum number of stanzas in an outbound lane.
+     */
+    public void setOutboundLaneCapacity(int outboundLaneCapacity) {
+        if (outboundLaneCapacity < 1) {
+            throw new IllegalArgumentException("The capacity of a lane must be at least one");
+        }
+        this.outboundLaneCapacity = outboundLaneCapacity;
+    }
+
+    /**
+     * Returns the number of stanzas of the specified kind that are queued in the outbound lanes
+     * of the component of the subdomain or -1 if no component is registered for the subdomain.
+     *
+     * @param subdomain the subdomain of the component.
+     * @param kind the kind of stanzas.
+     * @return the number of queued stanzas of that kind.
+     */
+    public int getOutboundLaneDepth(String subdomain, StanzaKind kind) {
+        ExternalComponent externalComponent = componentsByDomain.get(subdomain);
+        return externalComponent != null ? externalComponent.getOutboundLaneDepth(kind) : -1;
+    }
+
+    /**
+     * Returns the maximum number of stanzas per second that each component sends to the
+     * server or 0 if there is no limit, which is the default.
+     *
+     * @return the maximum rate of outbound stanzas of each component.
+     */
+    public double getOutboundRateLimit() {
+        return outboundRateLimit;
+    }
+
+    /**
+     * Returns the number of stanzas that each component may send in a burst before the outbound
+     * rate limit applies.
+     *
+     * @return the burst size of the outbound stanzas of each component.
+     */
+    public int getOutboundBurstSize() {
+        return outboundBurstSize;
+    }
+
+    /**
+     * Limits the rate of the stanzas that each component sends to the server using a token
+     * bucket. Stanzas are sent right away as long as the burst size is not exceeded; after
+     * that, threads that send stanzas wait so that the rate is not exceeded. This smooths bursts
+     * that would otherwise trip the rate limits of the server, which may throttle or disconnect
+     * the component. The setting applies to components that are added after it was changed.
+     *
+     * @param stanzasPerSecond the maximum rate of outbound stanzas or 0 for no limit.
+     * @param burstSize the number of stanzas that may be sent in a burst.
+     */
+    public void setOutboundRateLimit(double stanzasPerSecond, int burstSize) {
+        if (stanzasPerSecond < 0) {
+            throw new IllegalArgumentException("The rate limit cannot be negative");
+        }
+        if (stanzasPerSecond > 0 && burstSize < 1) {
+            throw new IllegalArgumentException("The burst size must be at least one stanza");
+        }
+        this.outboundRateLimit = stanzasPerSecond;
+        this.outboundBurstSize = burstSize;
+    }
+
+    /**
+     * Returns the maximum number of stanzas per second that each component sends to each
+     * destination domain or 0 if there is no limit, which is the default.
+     *
+     * @return the maximum rate of outbound stanzas to each domain.
+     */
+    public double getDomainOutboundRateLimit() {
+        return domainOutboundRateLimit;
+    }
+
+    /**
+     * Returns the number of stanzas that each component may send to a destination domain in a
+     * burst before the rate limit of the domain applies.
+     *
+     * @return the burst size of the outbound stanzas to each domain.
+     */
+    public int getDomainOutboundBurstSize() {
+        return domainOutboundBurstSize;
+    }
+
+    /**
+     * Limits the rate of the stanzas that each component sends to each destination domain,
+     * in addition to the limit of the whole connection (see
+     * {@link #setOutboundRateLimit(double, int)}). Every domain has its own token bucket, so
+     * a burst to one domain does not delay the stanzas sent to other domains, even within a
+     * batch sent by {@link #sendAll(Component, Collection)}. The setting
+     * applies to components that are added after it was changed.
+     *
+     * @param stanzasPerSecond the maximum rate of outbound stanzas to each domain or 0 for no limit.
+     * @param burstSize the number of stanzas that may be sent to a domain in a burst.
+     */
+    public void setDomainOutboundRateLimit(double stanzasPerSecond, int burstSize) {
+        if (stanzasPerSecond < 0) {
+            throw new IllegalArgumentException("The rate limit cannot be negative");
+        }
+        if (stanzasPerSecond > 0 && burstSize < 1) {
+            throw new IllegalArgumentException("The burst size must be at least one stanza");
+        }
+        this.domainOutboundRateLimit = stanzasPerSecond;
+        this.domainOutboundBurstSize = burstSize;
+    }
+
+    /**
+     * Returns true if the component of the subdomain coalesces the received presences of an
+     * address that wait to be processed.
+     *
+     * @param subdomain the sub-domain.
+     * @return true if the component of the subdomain coalesces presences.
+     */
+    public boolean isPresenceCoalescingEnabled(String subdomain) {
+        Boolean enabled = presenceCoalescing.get(subdomain);
+        return enabled != null && enabled;
+    }
+
+    /**
+     * Sets whether the component of the subdomain coalesces the received presences of an
+     * address. A presence of availability that arrives while an earlier presence from the same
+     * full address to the same recipient still waits for a thread replaces the earlier
+     * presence, so the component only processes the latest state of each address when it falls
+     * behind. Presences to different recipients, other presences, IQs and messages are never
+     * coalesced and keep their order. The setting applies to
+     * components that are added after it was changed.
+     *
+     * @param subdomain the sub-domain.
+     * @param enabled true if the component should coalesce presences.
+     */
+    public void setPresenceCoalescingEnabled(String subdomain, boolean enabled) {
+        presenceCoalescing.put(subdomain, enabled);
+    }
+
+    /**
+     * Returns the number of received stanzas waiting to be processed at which components stop
+     * reading from the server or 0 if components never stop reading, which is the default.
+     *
+     * @return the high watermark of received stanzas.
+     */
+    public int getInboundHighWatermark() {
+        return inboundHighWatermark;
+    }
+
+    /**
+     * Returns the number of received stanzas waiting to be processed at which components that
+     * stopped reading from the server resume reading.
+     *
+     * @return the low watermark of received stanzas.
+     */
+    public int getInboundLowWatermark() {
+        return inboundLowWatermark;
+    }
+
+    /**
+     * Sets the watermarks that push back on the server when the handlers of a component fall
+     * behind. When the number of received stanzas that wait for a thread of the component
+     * reaches the high watermark, the component defers the stanzas it reads until the number
+     * drops to the low watermark. Answers to pending queries and stream management elements are
+     * still processed while stanzas are deferred. Once as many stanzas as the high watermark are
+     * deferred the component stops reading from the server. TCP flow control then slows down
+     * the server instead of the queue of received stanzas growing without limit.<p>
+     *
+     * Answers to pending queries are processed by the threads of the component like any other
+     * stanza. If every thread of the component blocks waiting for an answer, the answers wait
+     * for a free thread, the deferred stanzas pile up until reading stops and the threads are
+     * only released by the timeouts of the queries. Meanwhile the acknowledgement requests of
+     * the server are not read and the server may close the stream. The setting applies to
+     * components that are added after it was changed.
+     *
+     * @param highWatermark the number of waiting stanzas at which reading stops or 0 to never stop.
+     * @param lowWatermark the number of waiting stanzas at which reading resumes.
+     */
+    public void setInboundWatermarks(int highWatermark, int lowWatermark) {
+        if (highWatermark < 0 || lowWatermark < 0) {
+            throw new IllegalArgumentException("Watermarks cannot be negative");
+        }
+        if (highWatermark > 0 && lowWatermark >= highWatermark) {
+            throw new IllegalArgumentException("The low watermark must be lower than the high watermark");
+        }
+        this.inboundHighWatermark = highWatermark;
+        this.inboundLowWatermark = lowWatermark;
+    }
+
+    public void addComponent(String subdomain, Component component) throws ComponentException {
+        addComponent(subdomain, component, this.port);
+    }
+
+    public void addComponent(String subdomain, Component component, Integer port) throws ComponentException {
+        // Create a wrapping ExternalComponent on the component
+        ExternalComponent externalComponent = new ExternalComponent(component, this);
+        externalComponent.setOutboundBuffer(outboundBuffers.get(subdomain));
+        // Register the new component unless the subdomain is taken, which may happen
+        // concurrently when components are added in parallel
+        ExternalComponent registered = componentsByDomain.putIfAbsent(subdomain, externalComponent);
+        if (registered != null) {
+            if (registered.getComponent() == component) {
+                // Do nothing since the component has already been registered
+                return;
+            }
+            else {
+                throw new IllegalArgumentException("Subdomain already in use by another component");
+            }
+        }
+        try {
+            components.put(component, externalComponent);
+            // Ask the ExternalComponent to connect with the remote server
+            externalComponent.connect(host, port, subdomain, startEncrypted);
+            // Initialize the component
+            JID componentJID = new JID(null, externalComponent.getDomain(), null);
+            externalComponent.initialize(componentJID, this);
+        }
+        catch (ComponentException | RuntimeException e) {
+            // Unregister the new component and release its connection
+            componentsByDomain.remove(subdomain, externalComponent);
+            components.remove(component, externalComponent);
+            externalComponent.abort();
+            // Re-throw the exception
+            throw e;
+        }
+        // Ask the external component to start processing incoming packets
+        externalComponent.start();
+    }
+
+    /**
+     * Adds many components at once. Components are connected, authenticated, initialized and
+     * started in parallel, by up to {@link #getMaxConcurrentConnects()} components at the same
+     * time, which speeds up the startup of large numbers of subdomains.<p>
+     *
+     * A component that fails to be added is not registered, just as when it was added using
+     * {@link #addComponent(String, Component)}. Components that were added successfully remain
+     * registered regardless of the failures of other components.
+     *
+     * @param components the components to add by subdomain.
+     * @return the result of each subdomain in the iteration order of the specified map: null if
+     *         the component was added or the exception that prevented it from being added.
+     */
+    public Map<String, ComponentException> addComponents(Map<String, Component> components) {
+        Map<String, ComponentException> results = new LinkedHashMap<String, ComponentException>();
+        if (components.isEmpty()) {
+            return results;
+        }
+        ExecutorService executor =
+                Executors.newFixedThreadPool(Math.min(maxConcurrentConnects, components.size()));
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>(components.size());
+            for (final Map.Entry<String, Component> entry : components.entrySet()) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    public Void call() throws ComponentException {
+                        addComponent(entry.getKey(), entry.getValue());
+                        return null;
+                    }
+                }));
+            }
+            int index = 0;
+            for (String subdomain : components.keySet()) {
+                results.put(subdomain, getResult(subdomain, futures.get(index++)));
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+        return results;
+    }
+
+    private ComponentException getResult(String subdomain, Future<?> future) {
+        try {
+            future.get();
+            return null;
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof ComponentException) {
+                return (ComponentException) cause;
+            }
+            Logger.error("Error adding component for subdomain {}", subdomain, cause);
+            return new ComponentException(cause);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.cancel(true);
+            return new ComponentException("Interrupted while adding component for subdomain " + subdomain, e);
+        }
+    }
+
+    public void removeComponent(String subdomain) throws ComponentException {
+        ExternalComponent externalComponent = componentsByDomain.remove(subdomain);
+        if (externalComponent != null) {
+            components.remove(externalComponent.getComponent());
+            externalComponent.shutdown();
+        }
+    }
+
+    public void sendPacket(Component component, Packet packet) {
+        // Get the ExternalComponent that is wrapping the specified component and ask it to
+        // send the packet
+        components.get(component).send(packet);
+    }
+
+    /**
+     * Sends many packets of a component at once, holding the lock of the connection once and
+     * flushing once. See {@link ExternalComponent#sendAll(Collection)}.
+     *
+     * @param component the component that sends the packets.
+     * @param packets the packets to send.
+     * @return the packets that could not be sent nor buffered, in order. The list is empty if
+     *         all packets were sent or buffered.
+     */
+    public List<Packet> sendAll(Component component, Collection<? extends Packet> packets) {
+        return components.get(component).sendAll(packets);
+    }
+
+    /**
+     * Sends a stanza of a component to many recipients, serializing the stanza only once. See
+     * {@link ExternalComponent#fanOut(StanzaTemplate, Collection)}.
+     *
+     * @param component the component that sends the stanza.
+     * @param template the stanza to send.
+     * @param recipients the recipients of the stanza.
+     * @return the recipients whose copy could not be sent nor buffered, in order. The list is
+     *         empty if all copies were sent or buffered.
+     */
+    public List<JID> fanOut(Component component, StanzaTemplate template, Collection<JID> recipients) {
+        return components.get(component).fanOut(template, recipients);
+    }
+
+    /**
+     * Sends a packet of a component unless the outbound rate limits keep it from being sent
+     * within the specified time. See {@link ExternalComponent#trySend(Packet, long)}.
+     *
+     * @param component the component that sends the packet.
+     * @param packet the packet to send.
+     * @param timeout the maximum time, in milliseconds, to wait until the packet may be sent.
+     * @return false if the packet was not sent because the rate limit was exceeded.
+     */
+    public boolean trySendPacket(Component component, Packet packet, long timeout) {
+        return components.get(component).trySend(packet, timeout);
+    }
+
+    public IQ query(Component component, IQ packet, long timeout) throws ComponentException {
+        return query(component, packet, timeout, pendingQueryPolicy);
+    }
+
+    /**
+     * Sends an IQ packet on behalf of the component and waits for the answer. If the connection
+     * with the server is lost while waiting then the query is handled according to the specified
+     * policy. When the policy is {@link PendingQueryPolicy#FAIL} then a ComponentException is
+     * thrown as soon as the connection is lost.
+     *
+     * @param component the component that is sending the query.
+     * @param packet the IQ packet to send.
+     * @param timeout the amount of milliseconds to wait for an answer.
+     * @param policy what to do with the query if the connection is lost.
+     * @return the answer or null if no answer was received in time.
+     * @throws ComponentException if the connection was lost while waiting for the answer.
+     */
+    public IQ query(Component component, IQ packet, long timeout, PendingQueryPolicy policy)
+            throws ComponentException {
+        final LinkedBlockingQueue<IQ> answer = new LinkedBlockingQueue<IQ>(8);
+        // The packet is sent with another ID
+        String id = packet.getID();
+        sendQuery(component, packet, new DisconnectAwareIQResultListener() {
+            public void receivedAnswer(IQ packet) {
+                answer.offer(packet);
+            }
+
+            public void answerTimeout(String packetId) {
+                //Do nothing
+            }
+
+            public void connectionLost(String packetId) {
+                answer.offer(CONNECTION_LOST);
+            }
+        }, timeout, policy);
+        IQ reply = null;
+        try {
+            reply = answer.poll(timeout, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e) {
+            // Ignore
+        }
+        if (reply == CONNECTION_LOST) {
+            throw new ComponentException("Connection lost while waiting for answer to " + id);
+        }
+        return reply;
+    }
+
+    public void query(Component component, IQ packet, IQResultListener listener) throws ComponentException {
+        query(component, packet, listener, pendingQueryPolicy);
+    }
+
+    /**
+     * Sends an IQ packet on behalf of the component. The listener is notified when the answer
+     * arrives. If the connection with the server is lost before the answer arrived then the
+     * query is handled according to the specified policy.
+     *
+     * @param component the component that is sending the query.
+     * @param packet the IQ packet to send.
+     * @param listener the listener to notify of the answer.
+     * @param policy what to do with the query if the connection is lost.
+     * @throws ComponentException if the query could not be sent.
+     */
+    public void query(Component component, IQ packet, IQResultListener listener, PendingQueryPolicy policy)
+            throws ComponentException {
+        // Add listenet with a timeout of 5 minutes to prevent memory leaks
+        sendQuery(component, packet, listener, 300000, policy);
+    }
+
+    /**
+     * Returns a new stanza ID for a packet that the specified component is about to send. IDs
+     * are unique for the connection of the component and are generated without contention
+     * between threads. The query methods use these IDs for the packets they send.
+     *
+     * @param component the component that will send the packet.
+     * @return a new stanza ID.
+     */
+    public String nextStanzaId(Component component) {
+        return components.get(component).nextStanzaId();
+    }
+
+    /**
+     * Sends an IQ packet on behalf of the component and registers the listener that will be
+     * notified of the answer. The packet is sent with an ID from
+     * {@link ExternalComponent#nextStanzaId()}, which replaces the ID of the packet, while the
+     * listener is notified using the ID that the caller gave to the packet. When a valid answer
+     * to the query is cached then the listener is notified right away from the calling thread.
+     * When query coalescing is enabled and an identical IQ get with the same timeout and policy
+     * is already in flight then the listener is attached to that query and no packet is sent.
+     *
+     * @param component the component that is sending the query.
+     * @param packet the IQ packet to send.
+     * @param listener the listener to notify of the answer.
+     * @param timeout the amount of milliseconds after which waiting for an answer should be stopped.
+     * @param policy what to do with the query if the connection is lost.
+     * @throws ComponentException if the maximum number of pending queries has been reached.
+     */
+    private void sendQuery(Component component, IQ packet, IQResultListener listener, long timeout,
+            PendingQueryPolicy policy) throws ComponentException {
+        ExternalComponent externalComponent = components.get(component);
+        IQResultListener leader = listener;
+        QueryKey key = null;
+        if (queryCoalescingEnabled || queryCache.isEnabled()) {
+            key = QueryKey.of(packet, externalComponent.getDomain());
+        }
+        boolean cacheable = key != null && queryCache.isCacheable(key);
+        if (cacheable) {
+            IQ cached = queryCache.get(key, packet.getID());
+            if (cached != null) {
+                listener.receivedAnswer(cached);
+                return;
+            }
+        }
+        IQResultListener inFlight = null;
+        if (key != null && queryCoalescingEnabled) {
+            inFlight = leader = coalescer.join(key, packet.getID(), listener, timeout, policy);
+            if (leader == null) {
+                // An identical query is already in flight. Its answer will be shared.
+                return;
+            }
+        }
+        if (cacheable) {
+            leader = queryCache.storing(key, leader);
+        }
+        // Send the packet with an ID that is unique for the connection. Listeners are notified
+        // using the ID that was given by the caller.
+        String callerId = packet.getID();
+        packet.setID(externalComponent.nextStanzaId());
+        try {
+            externalComponent.addPendingQuery(packet, callerId, leader, timeout, policy);
+        }
+        catch (ComponentException e) {
+            packet.setID(callerId);
+            coalescer.abandon(inFlight);
+            throw e;
+        }
+        externalComponent.send(packet);
+    }
+
+    /**
+     * Returns the backoff that defines the delays between attempts to reconnect a component
+     * whose connection with the server was lost.
+     *
+     * @return the backoff between reconnection attempts.
+     */
+    public ExponentialBackoff getReconnectBackoff() {
+        return reconnectBackoff;
+    }
+
+    /**
+     * Sets the delays between attempts to reconnect a component whose connection with the server
+     * was lost. The first attempt is made after the initial delay, every following attempt waits
+     * twice as long as the previous one until the maximum delay is reached. The default values are
+     * an initial delay of 1 second, a maximum delay of 60 seconds and a jitter of 0.2.
+     *
+     * @param initialDelay the delay, in milliseconds, before the first attempt.
+     * @param maxDelay the maximum delay, in milliseconds, between two attempts.
+     * @param jitter the fraction (between 0 and 1) of each delay that is randomized.
+     */
+    public void setReconnectDelay(long initialDelay, long maxDelay, double jitter) {
+        this.reconnectBackoff = new ExponentialBackoff(initialDelay, maxDelay, jitter);
+    }
+
+    /**
+     * Returns the time (in milliseconds) without inbound traffic after which components send an
+     * XMPP ping (XEP-0199) to the server. A value of zero, the default, means that components
+     * send a whitespace keep alive after 30 seconds without outbound traffic instead.
+     *
+     * @return the interval between XMPP pings or zero if XMPP pings are disabled.
+     */
+    public long getPingInterval() {
+        return pingInterval;
+    }
+
+    /**
+     * Sets the time (in milliseconds) without inbound traffic after which components send an
+     * XMPP ping (XEP-0199) to the server. Unlike whitespace keep alives, pings detect a server
+     * that stopped responding while the TCP connection still accepts writes. A ping that is not
+     * answered within the interval counts as missed, and after {@link #getMaxMissedPings()}
+     * missed pings in a row the connection is considered lost and the component reconnects.
+     * A value of zero disables XMPP pings. The setting applies to connections established
+     * after the change.
+     *
+     * @param pingInterval the interval between XMPP pings or zero to disable XMPP pings.
+     */
+    public void setPingInterval(long pingInterval) {
+        this.pingInterval = pingInterval;
+    }
+
+    /**
+     * Returns the number of consecutive XMPP pings that may go unanswered before the
+     * connection is considered lost. The default value is 3.
+     *
+     * @return the number of missed pings after which the connection is considered lost.
+     */
+    public int getMaxMissedPings() {
+        return maxMissedPings;
+    }
+
+    /**
+     * Sets the number of consecutive XMPP pings that may go unanswered before the connection
+     * is considered lost.
+     *
+     * @param maxMissedPings the number of missed pings after which the connection is considered lost.
+     */
+    public void setMaxMissedPings(int maxMissedPings) {
+        if (maxMissedPings < 1) {
+            throw new IllegalArgumentException("At least one missed ping must be allowed");
+        }
+        this.maxMissedPings = maxMissedPings;
+    }
+
+    /**
+     * Returns the coordinator of the reconnection attempts of all components.
+     *
+     * @return the coordinator of the reconnection attempts.
+     */
+    ReconnectCoordinator getReconnectCoordinator() {
+        return reconnectCoordinator;
+    }
+
+    /**
+     * Returns the housekeeper that performs the periodic work of all components.
+     *
+     * @return the housekeeper of all components.
+     */
+    Housekeeper getHousekeeper() {
+        return housekeeper;
+    }
+
+    /**
+     * Returns the priority of the subdomain when reconnecting. Subdomains with a higher
+     * priority reconnect first. The default priority is 0.
+     *
+     * @param subdomain the sub-domain.
+     * @return the priority of the subdomain when reconnecting.
+     */
+    public int getReconnectPriority(String subdomain) {
+        Integer priority = reconnectPriorities.get(subdomain);
+        return priority != null ? priority : 0;
+    }
+
+    /**
+     * Sets the priority of the subdomain when reconnecting. When many components lost their
+     * connection at the same time, components with a higher priority reconnect first.
+     *
+     * @param subdomain the sub-domain.
+     * @param priority the priority of the subdomain when reconnecting.
+     */
+    public void setReconnectPriority(String subdomain, int priority) {
+        reconnectPriorities.put(subdomain, priority);
+    }
+
+    /**
+     * Returns the maximum number of components that may try to reconnect at the same time.
+     * The default value is 4.
+     *
+     * @return the maximum number of concurrent reconnection attempts.
+     */
+    public int getMaxConcurrentReconnects() {
+        return maxConcurrentReconnects;
+    }
+
+    /**
+     * Sets the maximum number of components that may try to reconnect at the same time. This
+     * avoids overloading the server with handshakes when many components lost their connection
+     * at the same time, e.g. because the server restarted.
+     *
+     * @param maxConcurrentReconnects the maximum number of concurrent reconnection attempts.
+     */
+    public void setMaxConcurrentReconnects(int maxConcurrentReconnects) {
+        if (maxConcurrentReconnects < 1) {
+            throw new IllegalArgumentException("At least one reconnection attempt must be allowed");
+        }
+        this.maxConcurrentReconnects = maxConcurrentReconnects;
+    }
+
+    /**
+     * Returns the minimum time (in milliseconds) between the start of two reconnection
+     * attempts of any component. The default value is 100 milliseconds.
+     *
+     * @return the minimum time, in milliseconds, between two reconnection attempts.
+     */
+    public long getReconnectInterval() {
+        return reconnectInterval;
+    }
+
+    /**
+     * Sets the minimum time (in milliseconds) between the start of two reconnection attempts
+     * of any component. This spreads out the attempts of components that lost their connection
+     * at the same time.
+     *
+     * @param reconnectInterval the minimum time, in milliseconds, between two reconnection attempts.
+     */
+    public void setReconnectInterval(long reconnectInterval) {
+        this.reconnectInterval = reconnectInterval;
+    }
+
+    /**
+     * Returns the number of components whose reconnection attempt is due but is waiting for
+     * its turn.
+     *
+     * @return the number of queued reconnection attempts.
+     */
+    public int getQueuedReconnectCount() {
+        return reconnectCoordinator.getQueuedAttempts();
+    }
+
+    /**
+     * Returns the maximum number of queries that each component can have waiting for an answer
+     * at the same time. A value of zero, the default, means that the number is not limited.
+     *
+     * @return the maximum number of pending queries per component or zero for no limit.
+     */
+    public int getMaxPendingQueries() {
+        return maxPendingQueries;
+    }
+
+    /**
+     * Sets the maximum number of queries that each component can have waiting for an answer
+     * at the same time. When the limit is reached new queries wait up to
+     * {@link #getPendingQueryWaitTime()} for a slot and fail otherwise. A value of zero means
+     * that the number is not limited.
+     *
+     * @param maxPendingQueries the maximum number of pending queries per component or zero for no limit.
+     */
+    public void setMaxPendingQueries(int maxPendingQueries) {
+        this.maxPendingQueries = maxPendingQueries;
+    }
+
+    /**
+     * Returns the maximum number of queries that each component can have waiting for an answer
+     * from the same address at the same time. A value of zero, the default, means that the
+     * number is not limited.
+     *
+     * @return the maximum number of pending queries per component and target or zero for no limit.
+     */
+    public int getMaxPendingQueriesPerTarget() {
+        return maxPendingQueriesPerTarget;
+    }
+
+    /**
+     * Sets the maximum number of queries that each component can have waiting for an answer
+     * from the same address at the same time. A value of zero means that the number is not
+     * limited.
+     *
+     * @param maxPendingQueriesPerTarget the maximum number of pending queries per component and
+     *        target or zero for no limit.
+     */
+    public void setMaxPendingQueriesPerTarget(int maxPendingQueriesPerTarget) {
+        this.maxPendingQueriesPerTarget = maxPendingQueriesPerTarget;
+    }
+
+    /**
+     * Returns the time (in milliseconds) that a new query waits for a slot when the maximum
+     * number of pending queries has been reached. A value of zero, the default, means that
+     * the query fails right away.
+     *
+     * @return the time, in milliseconds, to wait for a free slot.
+     */
+    public long getPendingQueryWaitTime() {
+        return pendingQueryWaitTime;
+    }
+
+    /**
+     * Sets the time (in milliseconds) that a new query waits for a slot when the maximum
+     * number of pending queries has been reached. When no slot becomes available in time the
+     * query methods throw a ComponentException. A value of zero means that the query fails
+     * right away.
+     *
+     * @param pendingQueryWaitTime the time, in milliseconds, to wait for a free slot.
+     */
+    public void setPendingQueryWaitTime(long pendingQueryWaitTime) {
+        this.pendingQueryWaitTime = pendingQueryWaitTime;
+    }
+
+    /**
+     * Returns the number of queries sent by the component of the specified subdomain that are
+     * waiting for an answer or -1 if no component is registered for the subdomain.
+     *
+     * @param subdomain the subdomain of the component.
+     * @return the number of queries that are waiting for an answer.
+     */
+    public int getPendingQueryCount(String subdomain) {
+        ExternalComponent externalComponent = componentsByDomain.get(subdomain);
+        return externalComponent != null ? externalComponent.getPendingQueryCount() : -1;
+    }
+
+    /**
+     * Returns what happens by default to queries that are waiting for an answer when the
+     * connection with the server is lost. The default policy is {@link PendingQueryPolicy#WAIT}.
+     *
+     * @return the default policy for queries that are waiting for an answer.
+     */
+    public PendingQueryPolicy getPendingQueryPolicy() {
+        return pendingQueryPolicy;
+    }
+
+    /**
+     * Sets what happens by default to queries that are waiting for an answer when the
+     * connection with the server is lost. The policy can also be specified for each query.
+     *
+     * @param pendingQueryPolicy the default policy for queries that are waiting for an answer.
+     */
+    public void setPendingQueryPolicy(PendingQueryPolicy pendingQueryPolicy) {
+        if (pendingQueryPolicy == null) {
+            throw new IllegalArgumentException("Pending query policy cannot be null");
+        }
+        this.pendingQueryPolicy = pendingQueryPolicy;
+    }
+
+    /**
+     * Returns true if identical IQ gets that are sent at the same time by the query methods
+     * are coalesced into a single request to the server. By default coalescing is disabled.
+     *
+     * @return true if identical in-flight IQ gets share a single request.
+     */
+    public boolean isQueryCoalescingEnabled() {
+        return queryCoalescingEnabled;
+    }
+
+    /**
+     * Sets whether identical IQ gets that are sent at the same time by the query methods are
+     * coalesced into a single request to the server. IQ gets are identical when they are sent
+     * from and to the same address and have equal child elements. Only queries with the same
+     * timeout and {@link PendingQueryPolicy} share a request, so that each caller keeps its own
+     * timeout and policy. Every caller receives the answer to the shared request with the ID of
+     * its own request.
+     *
+     * @param queryCoalescingEnabled true if identical in-flight IQ gets should share a single request.
+     */
+    public void setQueryCoalescingEnabled(boolean queryCoalescingEnabled) {
+        this.queryCoalescingEnabled = queryCoalescingEnabled;
+    }
+
+    /**
+     * Returns the cache of answers to IQ gets sent using the query methods. The cache is
+     * empty and disabled until a time-to-live was set for at least one namespace using
+     * {@link IQResultCache#setTimeToLive(String, long)}.
+     *
+     * @return the cache of answers to IQ gets sent using the query methods.
+     */
+    public IQResultCache getQueryCache() {
+        return queryCache;
+    }
+
+    public String getProperty(String name) {
+        return preferences.get(getPreferencesPrefix() + name, null);
+    }
+
+    public void setProperty(String name, String value) {
+        preferences.put(getPreferencesPrefix() + name, value);
+    }
+
+    private String getPreferencesPrefix() {
+        if (preferencesPrefix == null) {
+            preferencesPrefix = "whack." + domain + ".";
+        }
+        return preferencesPrefix;
+    }
+
+    /**
+     * Sets the domain of the XMPP server. The domain may or may not match the host. The domain
+     * will be used mainly for the XMPP packets while the host is used mainly for creating
+     * connections to the server.
+     *
+     * @param domain the domain of the XMPP server.
+     */
+    public void setServerName(String domain) {
+        this.domain = domain;
+    }
+
+    /**
+     * Returns the domain of the XMPP server where we are connected to or <tt>null</tt> if
+     * this value was never configured. When the value is null then the component will
+     * register with just its subdomain and we expect the server to accept the component and
+     * append its domain to form the JID of the component.
+     *
+     * @return the domain of the XMPP server or null if never configured.
+     */
+    public String getServerName() {
+        return domain;
+    }
+
+    /**
+     * Returns the timeout (in milliseconds) to use when trying to connect to the server.
+     * The default value is 2 seconds.
+     *
+     * @return the timeout to use when trying to connect to the server.
+     */
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    /**
+     * Sets the timeout (in milliseconds) to use when trying to connect to the server.
+     * The default value is 2 seconds.
+     *
+     * @param connectTimeout the timeout, in milliseconds, to use when trying to connect to the server.
+     */
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    /**
+     * Returns the nodes of the server cluster that components connect to. If no cluster was
+     * configured then the only node is the host and port that were given to the constructor.
+     *
+     * @return the nodes of the server cluster.
+     */
+    public List<ServerEndpoint> getServerEndpoints() {
+        ConsistentHashRing ring = serverRing;
+        if (ring == null) {
+            return Collections.singletonList(new ServerEndpoint(host, port));
+        }
+        return ring.getNodes();
+    }
+
+    /**
+     * Sets the nodes of the server cluster that components connect to. Each subdomain is placed
+     * on a node using consistent hashing, so components are spread evenly over the nodes and
+     * changing the nodes only moves the components of the nodes that were added or removed.
+     * The hot standby connection of a subdomain is placed on the next node. A component whose
+     * node fails {@link #getMaxEndpointFailures()} times in a row moves to the next node and
+     * stays there.<p>
+     *
+     * When a cluster is configured the host and port given to the constructor and to
+     * {@link #addComponent(String, Component, Integer)} are ignored. The setting applies to
+     * connections established after the change. A <tt>null</tt> or empty list connects all
+     * components to the host and port given to the constructor again.
+     *
+     * @param endpoints the nodes of the server cluster or null.
+     */
+    public void setServerEndpoints(List<ServerEndpoint> endpoints) {
+        if (endpoints == null || endpoints.isEmpty()) {
+            serverRing = null;
+        }
+        else {
+            serverRing = new ConsistentHashRing(endpoints);
+        }
+    }
+
+    /**
+     * Returns the node of the server cluster at the specified position of the preference list
+     * of the subdomain or null if no cluster was configured. Positions wrap around the list.
+     *
+     * @param subdomain the sub-domain.
+     * @param position the position in the preference list of the subdomain.
+     * @return the node at the position or null if no cluster was configured.
+     */
+    ServerEndpoint getServerEndpoint(String subdomain, int position) {
+        ConsistentHashRing ring = serverRing;
+        if (ring == null) {
+            return null;
+        }
+        List<ServerEndpoint> preference = ring.getPreferenceList(subdomain);
+        return preference.get(Math.floorMod(position, preference.size()));
+    }
+
+    /**
+     * Returns the number of failed connection attempts in a row after which a component moves
+     * to the next node of the server cluster. The default value is 3.
+     *
+     * @return the number of failed attempts after which a component moves to the next node.
+     */
+    public int getMaxEndpointFailures() {
+        return maxEndpointFailures;
+    }
+
+    /**
+     * Sets the number of failed connection attempts in a row after which a component moves
+     * to the next node of the server cluster.
+     *
+     * @param maxEndpointFailures the number of failed attempts after which a component moves to the next node.
+     */
+    public void setMaxEndpointFailures(int maxEndpointFailures) {
+        if (maxEndpointFailures < 1) {
+            throw new IllegalArgumentException("At least one failure must be allowed");
+        }
+        this.maxEndpointFailures = maxEndpointFailures;
+    }
+
+    /**
+     * Returns the time (in milliseconds) between the start of two connection attempts to
+     * different addresses of the server. The default value is 250 milliseconds.
+     *
+     * @return the time between the start of two connection attempts.
+     */
+    public long getConnectStaggerDelay() {
+        return connectStaggerDelay;
+    }
+
+    /**
+     * Sets the time (in milliseconds) between the start of two connection attempts to different
+     * addresses of the server. When the name of the server resolves to several addresses then
+     * the addresses are tried in parallel, each attempt starting after this delay or as soon as
+     * the previous attempt failed, and the first connection that succeeds is used. An address
+     * that does not answer then only delays the connection by this delay instead of the connect
+     * timeout. The address that connected first is tried first on the next connection.
+     *
+     * @param connectStaggerDelay the time between the start of two connection attempts.
+     */
+    public void setConnectStaggerDelay(long connectStaggerDelay) {
+        this.connectStaggerDelay = connectStaggerDelay;
+    }
+
+    /**
+     * Returns the connector that establishes the TCP connections with the server.
+     *
+     * @return the connector of TCP connections.
+     */
+    HappyEyeballsConnector getConnector() {
+        return connector;
+    }
+
+    /**
+     * Returns the context used to create encrypted connections or <tt>null</tt> if the default
+     * context of the JVM is used.
+     *
+     * @return the context used to create encrypted connections or null.
+     */
+    public SSLContext getSSLContext() {
+        return sslContext;
+    }
+
+    /**
+     * Sets the context used to create encrypted connections when sockets are started in TLS/SSL
+     * mode. The context provides the trusted certificates and keeps the sessions that were
+     * established with the servers, so that reconnections resume them instead of performing a
+     * full handshake. The number and lifetime of the cached sessions can be configured on the
+     * client session context of the context. A <tt>null</tt> value uses the default context of
+     * the JVM. The setting applies to connections established after the change.
+     *
+     * @param sslContext the context used to create encrypted connections or null.
+     */
+    public void setSSLContext(SSLContext sslContext) {
+        this.sslContext = sslContext;
+    }
+
+    /**
+     * Keeps the TLS session that was just established with a node of the server and returns
+     * the session that was established with the node before.
+     *
+     * @param endpoint the node of the server.
+     * @param session the session that was just established.
+     * @return the previous session with the node or null if there was none.
+     */
+    SSLSession swapTlsSession(ServerEndpoint endpoint, SSLSession session) {
+        return tlsSessions.put(endpoint.toString(), session);
+    }
+
+    /**
+     * Returns the maximum number of components that {@link #addComponents(Map)} connects at
+     * the same time. The default value is 16.
+     *
+     * @return the maximum number of components that are connected at the same time.
+     */
+    public int getMaxConcurrentConnects() {
+        return maxConcurrentConnects;
+    }
+
+    /**
+     * Sets the maximum number of components that {@link #addComponents(Map)} connects at
+     * the same time.
+     *
+     * @param maxConcurrentConnects the maximum number of components that are connected at the same time.
+     */
+    public void setMaxConcurrentConnects(int maxConcurrentConnects) {
+        if (maxConcurrentConnects < 1) {
+            throw new IllegalArgumentException("At least one connection attempt must be allowed");
+        }
+        this.maxConcurrentConnects = maxConcurrentConnects;
     }
 
     public boolean isExternalMode() {
@@ -0,0 +1,232 @@
+/**
+ * Copyright 2026 Ignite Realtime Foundation
+ *
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.whack;
+
+import java.io.IOException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.jivesoftware.whack.util.TaskEngine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Connects to a server whose name resolves to several addresses by racing connection attempts
+ * across the addresses ("happy eyeballs", RFC 8305). The first attempt starts right away and
+ * every following attempt starts after a short delay or as soon as the previous attempt failed,
+ * so an unreachable address only costs that delay instead of the whole connect timeout. The
+ * first connection that succeeds is used and the other attempts are aborted.<p>
+ *
+ * The address that won the last race for a server is tried first the next time.
+ */
+class HappyEyeballsConnector {
+
+    private static final Logger Log = LoggerFactory.getLogger(HappyEyeballsConnector.class);
+
+    /**
+     * The address that connected first the last time, by host and port.
+     */
+    private final Map<String, InetAddress> preferred = new ConcurrentHashMap<String, InetAddress>();
+
+    /**
+     * Connects to the specified server.
+     *
+     * @param host the name or address of the server.
+     * @param port the port of the server.
+     * @param timeout the maximum time, in milliseconds, to wait for a connection or zero to wait
+     *        until the attempts fail.
+     * @param stagger the time, in milliseconds, between the start of two attempts.
+     * @return the connected socket.
+     * @throws IOException if no connection could be established.
+     */
+    Socket connect(String host, int port, int timeout, long stagger) throws IOException {
+        String key = host + ":" + port;
+        List<InetAddress> addresses = order(InetAddress.getAllByName(host), preferred.get(key));
+        if (addresses.size() == 1) {
+            Socket socket = new Socket();
+            try {
+                socket.connect(new InetSocketAddress(addresses.get(0), port), timeout);
+            }
+            catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+            return socket;
+        }
+
+        final BlockingQueue<Attempt> finished = new LinkedBlockingQueue<Attempt>();
+        final List<Attempt> started = new ArrayList<Attempt>(addresses.size());
+        // A timeout of zero means that attempts never time out
+        long deadline = timeout > 0 ? System.currentTimeMillis() + timeout : Long.MAX_VALUE;
+        IOException failure = null;
+        int next = 0;
+        int running = 0;
+        try {
+            while (true) {
+                long now = System.currentTimeMillis();
+                if (now >= deadline) {
+                    break;
+                }
+                if (next < addresses.size()) {
+                    int remaining = timeout > 0 ? (int) (deadline - now) : 0;
+                    Attempt attempt = new Attempt(addresses.get(next++), port, remaining, finished);
+                    started.add(attempt);
+                    running++;
+                    TaskEngine.getInstance().submit(attempt);
+                }
+                else if (running == 0) {
+                    break;
+                }
+                // Wait for an attempt to finish, but no longer than the stagger delay while
+                // other addresses remain to be tried
+                long wait = deadline - System.currentTimeMillis();
+                if (next < addresses.size()) {
+                    wait = Math.min(wait, stagger);
+                }
+                Attempt done = finished.poll(Math.max(wait, 0), TimeUnit.MILLISECONDS);
+                while (done != null) {
+                    running--;
+                    if (done.error == null) {
+                        preferred.put(key, done.address);
+                        Log.debug("Connected to {} using {}", key, done.address);
+                        started.remove(done);
+                        return done.socket;
+                    }
+                    // The next attempt starts right away
+                    failure = done.error;
+                    done = finished.poll();
+                }
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while connecting to " + key, e);
+        }
+        finally {
+            // Abort the attempts that did not win
+            for (Attempt attempt : started) {
+                attempt.abort();
+            }
+        }
+        if (failure != null && running == 0 && next >= addresses.size()) {
+            throw failure;
+        }
+        throw new SocketTimeoutException("Connect to " + key + " timed out");
+    }
+
+    /**
+     * Orders the addresses to try: the preferred address first, then alternating between
+     * address families, starting with the family of the first resolved address.
+     */
+    private static List<InetAddress> order(InetAddress[] resolved, InetAddress preferred) {
+        LinkedList<InetAddress> first = new LinkedList<InetAddress>();
+        LinkedList<InetAddress> second = new LinkedList<InetAddress>();
+        boolean firstIsIPv6 = resolved[0] instanceof Inet6Address;
+        for (InetAddress address : resolved) {
+            if (address.equals(preferred)) {
+                continue;
+            }
+            if ((address instanceof Inet6Address) == firstIsIPv6) {
+                first.add(address);
+            }
+            else {
+                second.add(address);
+            }
+        }
+        List<InetAddress> ordered = new ArrayList<InetAddress>(resolved.length);
+        for (InetAddress address : resolved) {
+            if (address.equals(preferred)) {
+                ordered.add(address);
+                break;
+            }
+        }
+        while (!first.isEmpty() || !second.isEmpty()) {
+            if (!first.isEmpty()) {
+                ordered.add(first.removeFirst());
+            }
+            if (!second.isEmpty()) {
+                ordered.add(second.removeFirst());
+            }
+        }
+        return ordered;
+    }
+
+    /**
+     * A single connection attempt to one address.
+     */
+    private static class Attempt implements Runnable {
+
+        private final InetAddress address;
+        private final int port;
+        private final int timeout;
+        private final BlockingQueue<Attempt> finished;
+        private final Socket socket = new Socket();
+        private volatile IOException error;
+        private volatile boolean aborted = false;
+
+        Attempt(InetAddress address, int port, int timeout, BlockingQueue<Attempt> finished) {
+            this.address = address;
+            this.port = port;
+            this.timeout = timeout;
+            this.finished = finished;
+        }
+
+        public void run() {
+            try {
+                socket.connect(new InetSocketAddress(address, port), timeout);
+                if (aborted) {
+                    // Another attempt won the race
+                    socket.close();
+                }
+            }
+            catch (IOException e) {
+                error = e;
+                try {
+                    socket.close();
+                }
+                catch (IOException ioe) {
+                    // Do nothing
+                }
+            }
+            finished.add(this);
+        }
+
+        /**
+         * Aborts the attempt, closing the socket if it was connected or is still connecting.
+         */
+        void abort() {
+            aborted = true;
+            try {
+                socket.close();
+            }
+            catch (IOException e) {
+                // Do nothing
+            }
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/**
+ * Copyright 2026 Ignite Realtime Foundation
+ *
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.whack;
+
+import java.util.List;
+import java.util.TimerTask;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.jivesoftware.whack.util.TaskEngine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Performs the periodic work of all components of an {@link ExternalComponentManager} from a
+ * single scheduled task. Each tick walks the registered components once and lets each of them
+ * expire the queries that timed out and, when due, keep its connection alive. This replaces a
+ * keep alive task and a timeout task per component. The tick itself only does bookkeeping:
+ * notifying listeners and sending keep alives is handed to the {@link TaskEngine}.<p>
+ *
+ * The task only runs while at least one component is registered.
+ */
+class Housekeeper {
+
+    private static final Logger Log = LoggerFactory.getLogger(Housekeeper.class);
+
+    /**
+     * Time (in milliseconds) between two ticks.
+     */
+    static final long TICK = 1000;
+
+    private final List<ExternalComponent> components = new CopyOnWriteArrayList<ExternalComponent>();
+    private TimerTask task;
+    /**
+     * True while a tick is running. A tick that is due while the previous one still runs is skipped.
+     */
+    private boolean running = false;
+
+    /**
+     * Registers a component so that it is included in every tick. Registering a component that
+     * is already registered does nothing.
+     *
+     * @param component the component to include in every tick.
+     */
+    synchronized void register(ExternalComponent component) {
+        if (components.contains(component)) {
+            return;
+        }
+        components.add(component);
+        if (task == null) {
+            task = new TimerTask() {
+                @Override
+                public void run() {
+                    tick();
+                }
+            };
+            TaskEngine.getInstance().scheduleAtFixedRate(task, TICK, TICK);
+        }
+    }
+
+    /**
+     * Removes a component from the ticks. The scheduled task is cancelled once no component
+     * is left.
+     *
+     * @param component the component to remove.
+     */
+    synchronized void unregister(ExternalComponent component) {
+        components.remove(component);
+        if (components.isEmpty() && task != null) {
+            TaskEngine.getInstance().cancelScheduledTask(task);
+            task = null;
+        }
+    }
+
+    private void tick() {
+        synchronized (this) {
+            if (running) {
+                return;
+            }
+            running = true;
+        }
+        try {
+            long now = System.currentTimeMillis();
+            for (ExternalComponent component : components) {
+                try {
+                    component.housekeep(now);
+                }
+                catch (Exception e) {
+                    Log.error("Error while performing housekeeping of {}", component.getDomain(), e);
+                }
+            }
+        }
+        finally {
+            synchronized (this) {
+                running = false;
+            }
+        }
+    }
+}
@@ -0,0 +1,195 @@
+/**
+ * Copyright 2026 Ignite Realtime Foundation
+ *
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.whack;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xmpp.component.IQResultListener;
+import org.xmpp.packet.IQ;
+
+/**
+ * Coalesces identical IQ gets that are in flight at the same time. The first caller of a query
+ * (the leader) sends its packet to the server, every caller that asks the same question while
+ * the leader is still waiting for the answer (a follower) is attached to the leader instead of
+ * sending another packet. Once the answer arrives each follower receives a copy of the answer
+ * that carries the ID of its own request.<p>
+ *
+ * Only queries with the same timeout and {@link PendingQueryPolicy} are coalesced, so every
+ * follower times out and is handled on a lost connection just as if it had sent its own packet.
+ * A query whose timeout or policy differs from the query in flight is sent on its own.
+ */
+class IQCoalescer {
+
+    private static final Logger Log = LoggerFactory.getLogger(IQCoalescer.class);
+
+    private final Map<QueryKey, InFlightQuery> inFlight = new ConcurrentHashMap<QueryKey, InFlightQuery>();
+
+    /**
+     * Attaches the listener to an identical query that is already in flight. If no such query
+     * exists then a new in-flight query is registered and returned. The caller is then the
+     * leader and must send its packet using the returned listener to collect the answer. If
+     * the query in flight has another timeout or policy then the listener of the caller is
+     * returned, and the caller sends its packet without taking part in the coalescing.
+     *
+     * @param key the key of the query.
+     * @param id the ID of the packet of the caller.
+     * @param listener the listener that the caller wants to be notified of the answer.
+     * @param timeout the timeout of the query of the caller.
+     * @param policy the policy of the query of the caller.
+     * @return the listener to register for the packet that is about to be sent or <tt>null</tt>
+     *         if the caller joined a query that is already in flight and must not send anything.
+     */
+    IQResultListener join(QueryKey key, String id, IQResultListener listener, long timeout,
+            PendingQueryPolicy policy) {
+        while (true) {
+            InFlightQuery query = new InFlightQuery(key, listener, timeout, policy);
+            InFlightQuery existing = inFlight.putIfAbsent(key, query);
+            if (existing == null) {
+                return query;
+            }
+            if (existing.timeout != timeout || existing.policy != policy) {
+                return listener;
+            }
+            if (existing.addFollower(id, listener)) {
+                return null;
+            }
+            // The existing query completed in the meantime. Try again.
+            inFlight.remove(key, existing);
+        }
+    }
+
+    /**
+     * Removes the in-flight query of a leader that could not send its packet. Followers that
+     * joined the query in the meantime are notified of a timeout.
+     *
+     * @param listener the listener that was returned to the leader by {@link #join}.
+     */
+    void abandon(IQResultListener listener) {
+        if (listener instanceof InFlightQuery) {
+            ((InFlightQuery) listener).abandon();
+        }
+    }
+
+    /**
+     * A query that was sent to the server and that is waiting for an answer. Holds the listener
+     * of the leader and the IDs and listeners of all followers.
+     */
+    private class InFlightQuery implements DisconnectAwareIQResultListener {
+
+        private final QueryKey key;
+        private final IQResultListener leader;
+        private final long timeout;
+        private final PendingQueryPolicy policy;
+        private List<String> followerIds;
+        private List<IQResultListener> followers;
+        private boolean completed = false;
+
+        InFlightQuery(QueryKey key, IQResultListener leader, long timeout, PendingQueryPolicy policy) {
+            this.key = key;
+            this.leader = leader;
+            this.timeout = timeout;
+            this.policy = policy;
+        }
+
+        synchronized boolean addFollower(String id, IQResultListener listener) {
+            if (completed) {
+                return false;
+            }
+            if (followers == null) {
+                followerIds = new ArrayList<String>(4);
+                followers = new ArrayList<IQResultListener>(4);
+            }
+            followerIds.add(id);
+            followers.add(listener);
+            return true;
+        }
+
+        /**
+         * Marks the query as completed so that no more followers can join.
+         */
+        private synchronized void complete() {
+            completed = true;
+            inFlight.remove(key, this);
+        }
+
+        void abandon() {
+            complete();
+            if (followers != null) {
+                for (int i = 0; i < followers.size(); i++) {
+                    try {
+                        followers.get(i).answerTimeout(followerIds.get(i));
+                    }
+                    catch (Exception e) {
+                        Log.error("Error processing timeout of remote entity", e);
+                    }
+                }
+            }
+        }
+
+        public void receivedAnswer(IQ packet) {
+            complete();
+            leader.receivedAnswer(packet);
+            if (followers != null) {
+                for (int i = 0; i < followers.size(); i++) {
+                    IQ answer = packet.createCopy();
+                    answer.setID(followerIds.get(i));
+                    try {
+                        followers.get(i).receivedAnswer(answer);
+                    }
+                    catch (Exception e) {
+                        Log.error("Error processing answer of remote entity", e);
+                    }
+                }
+            }
+        }
+
+        public void answerTimeout(String packetId) {
+            complete();
+            leader.answerTimeout(packetId);
+            if (followers != null) {
+                for (int i = 0; i < followers.size(); i++) {
+                    try {
+                        followers.get(i).answerTimeout(followerIds.get(i));
+                    }
+                    catch (Exception e) {
+                        Log.error("Error processing timeout of remote entity", e);
+                    }
+                }
+            }
+        }
+
+        public void connectionLost(String packetId) {
+            complete();
+            PendingQuery.connectionLost(leader, packetId);
+            if (followers != null) {
+                for (int i = 0; i < followers.size(); i++) {
+                    try {
+                        PendingQuery.connectionLost(followers.get(i), followerIds.get(i));
+                    }
+                    catch (Exception e) {
+                        Log.error("Error notifying lost connection to listener", e);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,283 @@
+/**
+ * Copyright 2026 Ignite Realtime Foundation
+ *
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.whack;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.xmpp.component.IQResultListener;
+import org.xmpp.packet.IQ;
+import org.xmpp.packet.JID;
+
+/**
+ * Bounded cache of answers to IQ gets that were sent using the query methods of the
+ * {@link ExternalComponentManager}. Only answers to queries whose child element namespace has a
+ * time-to-live configured are cached, so the cache does nothing until at least one namespace was
+ * configured (e.g. <tt>http://jabber.org/protocol/disco#info</tt> or <tt>vcard-temp</tt>).<p>
+ *
+ * Answers are kept until their time-to-live expires, until they are explicitly invalidated or
+ * until they are evicted because the cache is full. When the cache is full the least recently
+ * used answer is evicted.
+ */
+public class IQResultCache {
+
+    /**
+     * Time-to-live, in milliseconds, of cached answers by namespace of the query.
+     */
+    private final Map<String, Long> timeToLive = new ConcurrentHashMap<String, Long>();
+    /**
+     * Cached answers in access order. All access must be synchronized on the map.
+     */
+    private final LinkedHashMap<QueryKey, CachedAnswer> answers =
+            new LinkedHashMap<QueryKey, CachedAnswer>(64, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<QueryKey, CachedAnswer> eldest) {
+                    if (size() > maxEntries) {
+                        evictions.incrementAndGet();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+    private volatile int maxEntries = 1000;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    IQResultCache() {
+    }
+
+    /**
+     * Sets the time (in milliseconds) that answers to queries of the specified namespace are
+     * kept in the cache. Answers of namespaces that do not have a time-to-live are not cached.
+     * A value of zero or less stops caching answers of the namespace.
+     *
+     * @param namespace the namespace of the child element of the queries (e.g. vcard-temp).
+     * @param ttl the time, in milliseconds, that answers are kept in the cache.
+     */
+    public void setTimeToLive(String namespace, long ttl) {
+        if (ttl > 0) {
+            timeToLive.put(namespace, ttl);
+        }
+        else {
+            timeToLive.remove(namespace);
+            invalidate(null, namespace);
+        }
+    }
+
+    /**
+     * Returns the time (in milliseconds) that answers to queries of the specified namespace are
+     * kept in the cache or zero if answers of the namespace are not cached.
+     *
+     * @param namespace the namespace of the child element of the queries.
+     * @return the time, in milliseconds, that answers are kept in the cache.
+     */
+    public long getTimeToLive(String namespace) {
+        Long ttl = timeToLive.get(namespace);
+        return ttl != null ? ttl : 0;
+    }
+
+    /**
+     * Returns the maximum number of answers kept in the cache. The default value is 1000.
+     *
+     * @return the maximum number of answers kept in the cache.
+     */
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * Sets the maximum number of answers kept in the cache. When the cache is full the least
+     * recently used answer is evicted. The default value is 1000.
+     *
+     * @param maxEntries the maximum number of answers kept in the cache.
+     */
+    public void setMaxEntries(int maxEntries) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("The cache must be able to hold at least one answer");
+        }
+        this.maxEntries = maxEntries;
+        synchronized (answers) {
+            Iterator<CachedAnswer> it = answers.values().iterator();
+            while (answers.size() > maxEntries && it.hasNext()) {
+                it.next();
+                it.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Removes all cached answers to queries that were sent to the specified address.
+     *
+     * @param to the address of the entity that answered the queries.
+     */
+    public void invalidate(JID to) {
+        invalidate(to, null);
+    }
+
+    /**
+     * Removes all cached answers to queries that were sent to the specified address and whose
+     * child element is of the specified namespace. A <tt>null</tt> value matches any address
+     * or namespace.
+     *
+     * @param to the address of the entity that answered the queries or null for any address.
+     * @param namespace the namespace of the child element of the queries or null for any namespace.
+     */
+    public void invalidate(JID to, String namespace) {
+        String address = to != null ? to.toString() : null;
+        synchronized (answers) {
+            Iterator<QueryKey> it = answers.keySet().iterator();
+            while (it.hasNext()) {
+                QueryKey key = it.next();
+                if ((address == null || address.equals(key.getTo()))
+                        && (namespace == null || namespace.equals(key.getNamespace()))) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes all cached answers.
+     */
+    public void clear() {
+        synchronized (answers) {
+            answers.clear();
+        }
+    }
+
+    /**
+     * Returns the number of answers currently in the cache, including answers that expired but
+     * were not requested since.
+     *
+     * @return the number of answers currently in the cache.
+     */
+    public int size() {
+        synchronized (answers) {
+            return answers.size();
+        }
+    }
+
+    /**
+     * Returns the number of queries that were answered from the cache.
+     *
+     * @return the number of queries that were answered from the cache.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of cacheable queries that had to be sent to the server.
+     *
+     * @return the number of cacheable queries that had to be sent to the server.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of answers that were removed because the cache was full or because
+     * their time-to-live expired.
+     *
+     * @return the number of answers that were evicted from the cache.
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * Returns true if a time-to-live was configured for at least one namespace.
+     */
+    boolean isEnabled() {
+        return !timeToLive.isEmpty();
+    }
+
+    /**
+     * Returns true if answers to the query identified by the specified key may be cached.
+     */
+    boolean isCacheable(QueryKey key) {
+        return timeToLive.containsKey(key.getNamespace());
+    }
+
+    /**
+     * Returns a copy of the cached answer to the query identified by the specified key with the
+     * specified ID or <tt>null</tt> if no valid answer was found. Updates the hit and miss counters.
+     */
+    IQ get(QueryKey key, String id) {
+        CachedAnswer cached;
+        synchronized (answers) {
+            cached = answers.get(key);
+            if (cached != null && cached.expires <= System.currentTimeMillis()) {
+                answers.remove(key);
+                evictions.incrementAndGet();
+                cached = null;
+            }
+        }
+        if (cached == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        IQ answer = cached.answer.createCopy();
+        answer.setID(id);
+        return answer;
+    }
+
+    /**
+     * Returns a listener that stores a successful answer in the cache and then forwards it to
+     * the specified listener.
+     */
+    IQResultListener storing(final QueryKey key, final IQResultListener listener) {
+        return new DisconnectAwareIQResultListener() {
+            public void receivedAnswer(IQ packet) {
+                Long ttl = timeToLive.get(key.getNamespace());
+                if (ttl != null && packet.getType() == IQ.Type.result) {
+                    CachedAnswer cached = new CachedAnswer(packet.createCopy(), System.currentTimeMillis() + ttl);
+                    synchronized (answers) {
+                        answers.put(key, cached);
+                    }
+                }
+                listener.receivedAnswer(packet);
+            }
+
+            public void answerTimeout(String packetId) {
+                listener.answerTimeout(packetId);
+            }
+
+            public void connectionLost(String packetId) {
+                PendingQuery.connectionLost(listener, packetId);
+            }
+        };
+    }
+
+    private static class CachedAnswer {
+
+        private final IQ answer;
+        private final long expires;
+
+        CachedAnswer(IQ answer, long expires) {
+            this.answer = answer;
+            this.expires = expires;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/**
+ * Copyright 2026 Ignite Realtime Foundation
+ *
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.whack;
+
+import java.util.ArrayDeque;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xmpp.packet.Packet;
+
+/**
+ * Pushes back on the server when the handlers of a component fall behind. The gate counts the
+ * received stanzas that were handed to the thread pool but not processed yet. When the count
+ * reaches the high watermark the gate pauses until the count drops to the low watermark.<p>
+ *
+ * While the gate is paused the socket readers keep reading, so that answers to pending queries
+ * and stream management elements are still processed, but the other stanzas they read are
+ * deferred until the gate resumes. Once as many stanzas as the high watermark are deferred the
+ * readers stop reading. The unread data then stays in the socket buffers and TCP flow control
+ * slows down the server, instead of the queue of the thread pool growing without limit.
+ */
+class InboundGate {
+
+    private static final Logger Log = LoggerFactory.getLogger(InboundGate.class);
+
+    private final int highWatermark;
+    private final int lowWatermark;
+    private int pending = 0;
+    private boolean paused = false;
+    /**
+     * Received stanzas that wait for the gate to resume, in the order they were read.
+     */
+    private final ArrayDeque<Packet> deferred = new ArrayDeque<Packet>();
+    /**
+     * True while a thread hands the deferred stanzas to the thread pool.
+     */
+    private boolean draining = false;
+
+    InboundGate(int highWatermark, int lowWatermark) {
+        this.highWatermark = highWatermark;
+        this.lowWatermark = lowWatermark;
+    }
+
+    /**
+     * Records a stanza that was handed to the thread pool.
+     */
+    synchronized void dispatched() {
+        if (++pending >= highWatermark && !paused) {
+            paused = true;
+            Log.debug("Pausing reading after {} stanzas were queued", pending);
+        }
+    }
+
+    /**
+     * Records a stanza that was processed, or that could not be handed to the thread pool.
+     */
+    synchronized void completed() {
+        if (--pending <= lowWatermark && paused) {
+            paused = false;
+            Log.debug("Resuming reading with {} stanzas queued", pending);
+            notifyAll();
+        }
+    }
+
+    /**
+     * Defers a received stanza if the gate is paused or stanzas that were read before it
+     * still wait to be processed.
+     *
+     * @param packet the received stanza.
+     * @return true if the stanza was deferred, false if it may be processed now.
+     */
+    synchronized boolean defer(Packet packet) {
+        if (!paused && !draining && deferred.isEmpty()) {
+            return false;
+        }
+        deferred.add(packet);
+        return true;
+    }
+
+    /**
+     * Waits until reading may continue, which is as long as fewer stanzas than the high
+     * watermark are deferred.
+     *
+     * @throws InterruptedException if the thread was interrupted while waiting.
+     */
+    synchronized void awaitCapacity() throws InterruptedException {
+        while (deferred.size() >= highWatermark) {
+            wait();
+        }
+    }
+
+    /**
+     * Claims the deferred stanzas for the calling thread if the gate is not paused. The
+     * stanzas are then taken with {@link #nextDeferred()} until it returns null.
+     *
+     * @return true if the calling thread has to hand the deferred stanzas to the thread pool.
+     */
+    synchronized boolean startDraining() {
+        if (draining || paused || deferred.isEmpty()) {
+            return false;
+        }
+        draining = true;
+        return true;
+    }
+
+    /**
+     * Returns the next deferred stanza to hand to the thread pool, or null if there is none
+     * or the gate paused again, in which case the caller stops draining.
+     *
+     * @return the next deferred stanza or null.
+     */
+    synchronized Packet nextDeferred() {
+        Packet packet = paused ? null : deferred.poll();
+        if (packet == null) {
+            draining = false;
+        }
+        notifyAll();
+        return packet;
+    }
+
+    synchronized int getPending() {
+        return pending;
+    }
+
+    synchronized boolean isPaused() {
+        return paused;
+    }
+}
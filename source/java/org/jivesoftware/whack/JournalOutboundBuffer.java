@@ -0,0 +1,158 @@
+/**
+ * Copyright 2026 Ignite Realtime Foundation
+ *
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.whack;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+
+/**
+ * An {@link OutboundBuffer} that keeps the buffered stanzas in a memory-mapped file, so that a
+ * long outage does not fill the heap. The file is a single segment of the maximum size of the
+ * buffer in which records are appended one after another. Each record holds the time at which
+ * the stanza was buffered, the length of the stanza and the UTF-8 encoded stanza.<p>
+ *
+ * Space is reclaimed when the buffer has been replayed completely or, if records are still
+ * pending, by moving them to the start of the segment when the end has been reached. The
+ * content of the file is not meant to survive a restart of the process: the file is cleared
+ * when the buffer is created.
+ */
+public class JournalOutboundBuffer extends OutboundBuffer {
+
+    /**
+     * Size of the header of every record: the timestamp (long) and the length (int).
+     */
+    private static final int HEADER_SIZE = 12;
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer segment;
+    private int readPosition = 0;
+    private int writePosition = 0;
+    private int count = 0;
+
+    /**
+     * Creates a new buffer that is backed by the specified file. The file is created if it
+     * does not exist and cleared if it does.
+     *
+     * @param journal the file in which the stanzas are kept.
+     * @param maxAge the maximum time, in milliseconds, that a stanza may wait to be replayed.
+     * @param maxBytes the maximum number of bytes of the file.
+     * @param replayable the kinds of stanzas that may be buffered and replayed.
+     * @throws IOException if the file could not be created or mapped.
+     */
+    public JournalOutboundBuffer(File journal, long maxAge, long maxBytes, Set<StanzaKind> replayable)
+            throws IOException {
+        super(maxAge, maxBytes, replayable);
+        if (maxBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("A journal cannot be larger than " + Integer.MAX_VALUE + " bytes");
+        }
+        this.file = new RandomAccessFile(journal, "rw");
+        try {
+            file.setLength(0);
+            this.segment = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, maxBytes);
+        }
+        catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public synchronized int size() {
+        return count;
+    }
+
+    @Override
+    public synchronized long getBytes() {
+        return writePosition - readPosition;
+    }
+
+    @Override
+    protected boolean append(long timestamp, String stanza) {
+        byte[] bytes = stanza.getBytes(StandardCharsets.UTF_8);
+        int length = HEADER_SIZE + bytes.length;
+        if (writePosition + length > segment.capacity()) {
+            compact();
+            if (writePosition + length > segment.capacity()) {
+                return false;
+            }
+        }
+        segment.putLong(writePosition, timestamp);
+        segment.putInt(writePosition + 8, bytes.length);
+        ByteBuffer target = segment.duplicate();
+        target.position(writePosition + HEADER_SIZE);
+        target.put(bytes);
+        writePosition += length;
+        count++;
+        return true;
+    }
+
+    /**
+     * Moves the pending records to the start of the segment.
+     */
+    private void compact() {
+        if (readPosition == 0) {
+            return;
+        }
+        ByteBuffer pending = segment.duplicate();
+        pending.position(readPosition).limit(writePosition);
+        ByteBuffer target = segment.duplicate();
+        target.position(0);
+        target.put(pending);
+        writePosition -= readPosition;
+        readPosition = 0;
+    }
+
+    @Override
+    protected long firstTimestamp() {
+        return segment.getLong(readPosition);
+    }
+
+    @Override
+    protected String first() {
+        byte[] bytes = new byte[segment.getInt(readPosition + 8)];
+        ByteBuffer source = segment.duplicate();
+        source.position(readPosition + HEADER_SIZE);
+        source.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    protected void removeFirst() {
+        readPosition += HEADER_SIZE + segment.getInt(readPosition + 8);
+        count--;
+        if (count == 0) {
+            // Everything was replayed so start again at the beginning of the segment
+            readPosition = 0;
+            writePosition = 0;
+        }
+    }
+
+    /**
+     * Closes the file that backs this buffer. Stanzas that are still in the buffer are lost.
+     *
+     * @throws IOException if the file could not be closed.
+     */
+    public synchronized void close() throws IOException {
+        file.close();
+    }
+}
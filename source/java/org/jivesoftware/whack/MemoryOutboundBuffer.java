@@ -0,0 +1,86 @@
+/**
+ * Copyright 2026 Ignite Realtime Foundation
+ *
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.whack;
+
+import java.util.ArrayDeque;
+import java.util.Set;
+
+/**
+ * An {@link OutboundBuffer} that keeps the buffered stanzas on the heap.
+ */
+public class MemoryOutboundBuffer extends OutboundBuffer {
+
+    private final ArrayDeque<Entry> entries = new ArrayDeque<Entry>();
+    private long bytes = 0;
+
+    /**
+     * Creates a new buffer.
+     *
+     * @param maxAge the maximum time, in milliseconds, that a stanza may wait to be replayed.
+     * @param maxBytes the maximum number of bytes of serialized stanzas that the buffer holds.
+     * @param replayable the kinds of stanzas that may be buffered and replayed.
+     */
+    public MemoryOutboundBuffer(long maxAge, long maxBytes, Set<StanzaKind> replayable) {
+        super(maxAge, maxBytes, replayable);
+    }
+
+    @Override
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    @Override
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    @Override
+    protected boolean append(long timestamp, String stanza) {
+        Entry entry = new Entry(timestamp, stanza);
+        entries.addLast(entry);
+        bytes += entry.bytes;
+        return true;
+    }
+
+    @Override
+    protected long firstTimestamp() {
+        return entries.getFirst().timestamp;
+    }
+
+    @Override
+    protected String first() {
+        return entries.getFirst().stanza;
+    }
+
+    @Override
+    protected void removeFirst() {
+        bytes -= entries.removeFirst().bytes;
+    }
+
+    private static class Entry {
+
+        private final long timestamp;
+        private final String stanza;
+        private final int bytes;
+
+        Entry(long timestamp, String stanza) {
+            this.timestamp = timestamp;
+            this.stanza = stanza;
+            this.bytes = utf8Length(stanza);
+        }
+    }
+}
@@ -0,0 +1,212 @@
+/**
+ * Copyright 2026 Ignite Realtime Foundation
+ *
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.whack;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+import org.xmpp.packet.Packet;
+
+/**
+ * Holds the stanzas that a component sends while its connection with the server is down, so
+ * that they can be sent in the same order once the connection has been reestablished. Without a
+ * buffer those stanzas are lost.<p>
+ *
+ * A buffer only accepts the {@link StanzaKind kinds} of stanzas that it was configured to
+ * replay, accepts stanzas until the configured number of bytes is reached and discards stanzas
+ * that are older than the configured maximum age when they are about to be replayed. Stanzas
+ * are kept in their serialized form, so replaying them does not serialize them again.<p>
+ *
+ * Implementations only have to store the serialized stanzas in order. All methods of this
+ * class are synchronized, so implementations do not need to be thread-safe themselves.
+ *
+ * @see ExternalComponentManager#setOutboundBuffer(String, OutboundBuffer)
+ */
+public abstract class OutboundBuffer {
+
+    private final long maxAge;
+    private final long maxBytes;
+    private final Set<StanzaKind> replayable;
+
+    private long rejected = 0;
+    private long expired = 0;
+
+    /**
+     * Creates a new buffer.
+     *
+     * @param maxAge the maximum time, in milliseconds, that a stanza may wait to be replayed.
+     * @param maxBytes the maximum number of bytes of serialized stanzas that the buffer holds.
+     * @param replayable the kinds of stanzas that may be buffered and replayed.
+     */
+    protected OutboundBuffer(long maxAge, long maxBytes, Set<StanzaKind> replayable) {
+        if (maxAge <= 0 || maxBytes <= 0) {
+            throw new IllegalArgumentException("Maximum age and size must be positive");
+        }
+        this.maxAge = maxAge;
+        this.maxBytes = maxBytes;
+        this.replayable = replayable.isEmpty() ? EnumSet.noneOf(StanzaKind.class) : EnumSet.copyOf(replayable);
+    }
+
+    /**
+     * Adds the packet to the end of the buffer.
+     *
+     * @param packet the packet that could not be sent.
+     * @return true if the packet was added, false if the packet may not be replayed or the
+     *         buffer is full.
+     */
+    public synchronized boolean offer(Packet packet) {
+        if (!replayable.contains(StanzaKind.of(packet))) {
+            return false;
+        }
+        String stanza = packet.toXML();
+        if (getBytes() + utf8Length(stanza) > maxBytes || !append(System.currentTimeMillis(), stanza)) {
+            rejected++;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the oldest stanza of the buffer without removing it or <tt>null</tt> if the
+     * buffer is empty. Stanzas that exceeded the maximum age are discarded.
+     *
+     * @return the oldest stanza of the buffer or null if the buffer is empty.
+     */
+    synchronized String peek() {
+        long oldest = System.currentTimeMillis() - maxAge;
+        while (size() > 0 && firstTimestamp() < oldest) {
+            removeFirst();
+            expired++;
+        }
+        return size() > 0 ? first() : null;
+    }
+
+    /**
+     * Removes the oldest stanza of the buffer once it has been replayed.
+     */
+    synchronized void remove() {
+        if (size() > 0) {
+            removeFirst();
+        }
+    }
+
+    /**
+     * Returns the maximum time, in milliseconds, that a stanza may wait to be replayed.
+     *
+     * @return the maximum age of buffered stanzas.
+     */
+    public long getMaxAge() {
+        return maxAge;
+    }
+
+    /**
+     * Returns the maximum number of bytes of serialized stanzas that the buffer holds.
+     *
+     * @return the maximum size of the buffer in bytes.
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Returns the number of stanzas that were not buffered because the buffer was full.
+     *
+     * @return the number of stanzas that were rejected because the buffer was full.
+     */
+    public synchronized long getRejectedCount() {
+        return rejected;
+    }
+
+    /**
+     * Returns the number of stanzas that were discarded because they exceeded the maximum age.
+     *
+     * @return the number of stanzas that expired before they could be replayed.
+     */
+    public synchronized long getExpiredCount() {
+        return expired;
+    }
+
+    /**
+     * Returns the number of stanzas in the buffer.
+     *
+     * @return the number of stanzas in the buffer.
+     */
+    public abstract int size();
+
+    /**
+     * Returns the number of bytes of the serialized stanzas in the buffer.
+     *
+     * @return the number of bytes in the buffer.
+     */
+    public abstract long getBytes();
+
+    /**
+     * Stores the serialized stanza at the end of the buffer.
+     *
+     * @param timestamp the time at which the stanza was buffered.
+     * @param stanza the serialized stanza.
+     * @return true if the stanza was stored, false if there was no room for it.
+     */
+    protected abstract boolean append(long timestamp, String stanza);
+
+    /**
+     * Returns the time at which the oldest stanza was buffered. Only invoked when the buffer
+     * is not empty.
+     *
+     * @return the time at which the oldest stanza was buffered.
+     */
+    protected abstract long firstTimestamp();
+
+    /**
+     * Returns the oldest serialized stanza. Only invoked when the buffer is not empty.
+     *
+     * @return the oldest serialized stanza.
+     */
+    protected abstract String first();
+
+    /**
+     * Removes the oldest stanza. Only invoked when the buffer is not empty.
+     */
+    protected abstract void removeFirst();
+
+    /**
+     * Returns the number of bytes of the UTF-8 encoding of the string without encoding it.
+     *
+     * @param string the string to measure.
+     * @return the number of bytes of the UTF-8 encoding of the string.
+     */
+    protected static int utf8Length(String string) {
+        int length = 0;
+        for (int i = 0, size = string.length(); i < size; i++) {
+            char c = string.charAt(i);
+            if (c < 0x80) {
+                length++;
+            }
+            else if (c < 0x800) {
+                length += 2;
+            }
+            else if (Character.isHighSurrogate(c)) {
+                length += 4;
+                i++;
+            }
+            else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+}
@@ -0,0 +1,223 @@
+/**
+ * Copyright 2026 Ignite Realtime Foundation
+ *
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.whack;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xmpp.packet.Packet;
+
+/**
+ * Queues the stanzas that a component sends in one lane per {@link StanzaKind} and writes them
+ * to the server from a single thread. The lanes are served by weighted round-robin: in every
+ * round each lane may send up to its weight in stanzas (see
+ * {@link ExternalComponentManager#setOutboundLaneWeight(StanzaKind, int)}). A burst of messages
+ * therefore no longer delays the answers to IQ requests that were sent after the burst.<p>
+ *
+ * The writer thread takes up to {@link #BATCH_SIZE} stanzas at a time, in the order chosen by
+ * the round-robin, and sends them with a single flush.<p>
+ *
+ * Each lane holds up to {@link ExternalComponentManager#getOutboundLaneCapacity()} stanzas.
+ * Threads that send a stanza of a full lane wait until the writer thread made room, so the
+ * lanes push back on the senders when the connection cannot keep up.
+ */
+class OutboundLanes {
+
+    private static final Logger Log = LoggerFactory.getLogger(OutboundLanes.class);
+
+    /**
+     * Maximum number of stanzas that the writer thread sends with a single flush.
+     */
+    static final int BATCH_SIZE = 64;
+
+    private static final StanzaKind[] KINDS = StanzaKind.values();
+
+    private final ExternalComponent component;
+    private final ExternalComponentManager manager;
+    private final List<ArrayDeque<Packet>> lanes = new ArrayList<ArrayDeque<Packet>>(KINDS.length);
+    private final Thread writer;
+    private final int capacity;
+    /**
+     * Total number of queued stanzas.
+     */
+    private int size = 0;
+    /**
+     * The lane that is being served and the number of stanzas it may still send in this round.
+     */
+    private int current = 0;
+    private int credit;
+    private boolean closed = false;
+    /**
+     * Number of queued stanzas that could neither be sent nor buffered.
+     */
+    private long dropped = 0;
+
+    OutboundLanes(ExternalComponent component, ExternalComponentManager manager, String subdomain) {
+        this.component = component;
+        this.manager = manager;
+        for (int i = 0; i < KINDS.length; i++) {
+            lanes.add(new ArrayDeque<Packet>());
+        }
+        credit = manager.getOutboundLaneWeight(KINDS[current]);
+        capacity = manager.getOutboundLaneCapacity();
+        writer = new Thread("Component outbound writer - " + subdomain) {
+            public void run() {
+                writeLoop();
+            }
+        };
+        writer.setDaemon(true);
+    }
+
+    void start() {
+        writer.start();
+    }
+
+    /**
+     * Queues a copy of a stanza to be sent by the writer thread, so that the caller may change
+     * or reuse the stanza once this method returns. Waits while the lane of the stanza is full.
+     *
+     * @param packet the stanza to send.
+     * @return false if the lanes were closed, or the thread was interrupted while waiting, and
+     *         the stanza must be sent by the caller.
+     */
+    boolean offer(Packet packet) {
+        Packet copy = packet.createCopy();
+        ArrayDeque<Packet> lane = lanes.get(StanzaKind.of(copy).ordinal());
+        synchronized (this) {
+            try {
+                while (!closed && lane.size() >= capacity) {
+                    wait();
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            if (closed) {
+                return false;
+            }
+            lane.add(copy);
+            if (size++ == 0) {
+                notifyAll();
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Returns the number of queued stanzas of the specified kind.
+     *
+     * @param kind the kind of stanzas.
+     * @return the number of queued stanzas of that kind.
+     */
+    synchronized int getDepth(StanzaKind kind) {
+        return lanes.get(kind.ordinal()).size();
+    }
+
+    /**
+     * Returns the number of queued stanzas that could neither be sent nor buffered by the
+     * writer thread.
+     *
+     * @return the number of dropped stanzas.
+     */
+    synchronized long getDroppedCount() {
+        return dropped;
+    }
+
+    private synchronized void dropped(int count) {
+        dropped += count;
+    }
+
+    /**
+     * Stops accepting stanzas and waits for the writer thread to send the stanzas that were
+     * already queued.
+     *
+     * @param timeout the maximum time, in milliseconds, to wait for the writer thread.
+     */
+    void close(long timeout) {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            writer.join(timeout);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeLoop() {
+        while (true) {
+            List<Packet> batch;
+            try {
+                batch = take();
+            }
+            catch (InterruptedException e) {
+                return;
+            }
+            if (batch == null) {
+                return;
+            }
+            try {
+                List<Packet> failed = component.sendAll(batch);
+                if (!failed.isEmpty()) {
+                    dropped(failed.size());
+                    Log.error("Unable to send or buffer {} queued stanzas: {}", failed.size(), failed);
+                }
+            }
+            catch (Exception e) {
+                dropped(batch.size());
+                Log.error("Error sending {} queued stanzas", batch.size(), e);
+            }
+        }
+    }
+
+    /**
+     * Takes the next stanzas to send in weighted round-robin order, waiting until there is at
+     * least one.
+     *
+     * @return the stanzas to send or null if the lanes were closed and are empty.
+     */
+    private synchronized List<Packet> take() throws InterruptedException {
+        while (size == 0) {
+            if (closed) {
+                return null;
+            }
+            wait();
+        }
+        List<Packet> batch = new ArrayList<Packet>(Math.min(size, BATCH_SIZE));
+        while (size > 0 && batch.size() < BATCH_SIZE) {
+            ArrayDeque<Packet> lane = lanes.get(current);
+            if (lane.isEmpty() || credit <= 0) {
+                // Move on to the next lane, which starts a new turn with its full weight
+                current = (current + 1) % KINDS.length;
+                credit = manager.getOutboundLaneWeight(KINDS[current]);
+                continue;
+            }
+            batch.add(lane.poll());
+            size--;
+            credit--;
+        }
+        // Senders may be waiting for room in the lanes
+        notifyAll();
+        return batch;
+    }
+}
@@ -0,0 +1,245 @@
+/**
+ * Copyright 2026 Ignite Realtime Foundation
+ *
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.whack;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shapes the stanzas that a component sends so that bursts are spread out instead of exceeding
+ * the rate limits of the server. One {@link TokenBucket} limits the whole connection and,
+ * optionally, one bucket per destination domain limits what is sent to each domain.<p>
+ *
+ * Every stanza reserves a token in each bucket it needs and may be sent once all of them have
+ * its token. When a batch of stanzas is sent, only the stanzas to a throttled domain are held
+ * back; stanzas to other domains are sent as soon as the connection allows.
+ */
+class OutboundRateLimiter {
+
+    /**
+     * Maximum number of domain buckets. Beyond it the bucket that was not used for the
+     * longest time is discarded.
+     */
+    private static final int MAX_DOMAINS = 10000;
+
+    /**
+     * Stanzas whose delays differ by less than this many nanoseconds are sent together.
+     */
+    private static final long GROUP_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final TokenBucket connectionBucket;
+    private final double domainRate;
+    private final int domainBurst;
+    /**
+     * Buckets of the destination domains, from the least to the most recently used.
+     */
+    private final LinkedHashMap<String, TokenBucket> domainBuckets =
+            new LinkedHashMap<String, TokenBucket>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, TokenBucket> eldest) {
+                    return size() > MAX_DOMAINS;
+                }
+            };
+
+    private final AtomicLong delayedCount = new AtomicLong();
+    private final AtomicLong queueTime = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    /**
+     * Creates a new rate limiter. A rate of zero means no limit.
+     *
+     * @param rate the stanzas per second for the whole connection.
+     * @param burst the size of the bucket of the connection.
+     * @param domainRate the stanzas per second for each destination domain.
+     * @param domainBurst the size of the bucket of each destination domain.
+     */
+    OutboundRateLimiter(double rate, int burst, double domainRate, int domainBurst) {
+        this.connectionBucket = rate > 0 ? new TokenBucket(rate, burst) : null;
+        this.domainRate = domainRate;
+        this.domainBurst = domainBurst;
+    }
+
+    /**
+     * Reserves the tokens of the specified stanzas.
+     *
+     * @param domains the destination domain of each stanza, or null for stanzas without one.
+     * @param timeout the maximum time, in milliseconds, to wait or -1 to wait as long as needed.
+     * @return the time, in nanoseconds from now, after which each stanza may be sent, or null if
+     *         a stanza could not be sent within the timeout. Nothing is reserved then.
+     */
+    long[] reserve(List<String> domains, long timeout) {
+        long now = System.nanoTime();
+        long maxWait = timeout < 0 ? Long.MAX_VALUE : TimeUnit.MILLISECONDS.toNanos(timeout);
+        long[] delays = new long[domains.size()];
+        for (int i = 0; i < delays.length; i++) {
+            if (connectionBucket != null) {
+                long wait = connectionBucket.reserve(1, now, maxWait);
+                if (wait < 0) {
+                    return reject(domains, i, i);
+                }
+                delays[i] = wait;
+            }
+            String domain = domains.get(i);
+            if (domainRate > 0 && domain != null) {
+                long wait = getDomainBucket(domain).reserve(1, now, maxWait);
+                if (wait < 0) {
+                    return reject(domains, connectionBucket != null ? i + 1 : 0, i);
+                }
+                delays[i] = Math.max(delays[i], wait);
+            }
+        }
+        for (long delay : delays) {
+            if (delay > 0) {
+                delayedCount.incrementAndGet();
+                queueTime.addAndGet(delay);
+            }
+        }
+        return delays;
+    }
+
+    /**
+     * Gives back the tokens that were reserved for stanzas that will not be sent.
+     *
+     * @param domains the destination domain of each stanza.
+     * @param connectionTokens the number of tokens reserved in the bucket of the connection.
+     * @param domainTokens the number of stanzas, from the first one, that reserved a token in
+     *        the bucket of their domain.
+     */
+    private long[] reject(List<String> domains, int connectionTokens, int domainTokens) {
+        if (connectionTokens > 0) {
+            connectionBucket.release(connectionTokens);
+        }
+        if (domainRate > 0) {
+            for (int i = 0; i < domainTokens; i++) {
+                String domain = domains.get(i);
+                if (domain != null) {
+                    getDomainBucket(domain).release(1);
+                }
+            }
+        }
+        rejectedCount.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Splits stanzas into the groups that are sent together, in the order in which the groups
+     * may be sent. Stanzas keep their order within a group.
+     *
+     * @param delays the delays of the stanzas as returned by {@link #reserve(List, long)}.
+     * @return the indexes of the stanzas of each group.
+     */
+    static List<List<Integer>> group(final long[] delays) {
+        Integer[] order = new Integer[delays.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        // The sort is stable, so stanzas with the same delay keep their order
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return Long.compare(delays[a], delays[b]);
+            }
+        });
+        List<List<Integer>> groups = new ArrayList<List<Integer>>();
+        List<Integer> current = null;
+        long groupDelay = 0;
+        for (Integer index : order) {
+            if (current == null || delays[index] - groupDelay >= GROUP_NANOS) {
+                current = new ArrayList<Integer>();
+                groups.add(current);
+                groupDelay = delays[index];
+            }
+            current.add(index);
+        }
+        for (List<Integer> group : groups) {
+            Collections.sort(group);
+        }
+        return groups;
+    }
+
+    /**
+     * Waits until the stanzas of a group may be sent.
+     *
+     * @param start the value of {@link System#nanoTime()} when the stanzas were reserved.
+     * @param delay the largest delay of the stanzas of the group.
+     */
+    static void await(long start, long delay) {
+        long wait = start + delay - System.nanoTime();
+        if (wait > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+            catch (InterruptedException e) {
+                // Send right away
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Returns the bucket of a domain. When there are too many buckets, the least recently used
+     * bucket is discarded. If that domain is used again it starts with a full bucket, which
+     * only happens to domains that did not receive stanzas for the longest time.
+     */
+    private TokenBucket getDomainBucket(String domain) {
+        synchronized (domainBuckets) {
+            TokenBucket bucket = domainBuckets.get(domain);
+            if (bucket == null) {
+                bucket = new TokenBucket(domainRate, domainBurst);
+                domainBuckets.put(domain, bucket);
+            }
+            return bucket;
+        }
+    }
+
+    /**
+     * Returns the number of buckets of destination domains.
+     */
+    int getDomainCount() {
+        synchronized (domainBuckets) {
+            return domainBuckets.size();
+        }
+    }
+
+    /**
+     * Returns the number of stanzas that had to wait for tokens.
+     */
+    long getDelayedCount() {
+        return delayedCount.get();
+    }
+
+    /**
+     * Returns the total time, in milliseconds, that stanzas waited for tokens.
+     */
+    long getQueueTime() {
+        return TimeUnit.NANOSECONDS.toMillis(queueTime.get());
+    }
+
+    /**
+     * Returns the number of times that stanzas were not sent because the buckets stayed empty
+     * for longer than the caller was willing to wait.
+     */
+    long getRejectedCount() {
+        return rejectedCount.get();
+    }
+}
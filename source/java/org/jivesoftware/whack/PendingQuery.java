@@ -0,0 +1,153 @@
+/**
+ * Copyright 2026 Ignite Realtime Foundation
+ *
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.whack;
+
+import org.xmpp.component.IQResultListener;
+import org.xmpp.packet.IQ;
+
+/**
+ * An IQ packet that was sent by a component and that is waiting for an answer.
+ */
+class PendingQuery {
+
+    private final String id;
+    private final String callerId;
+    private final IQResultListener listener;
+    private final long expires;
+    private final IQ packet;
+    private final PendingQueryPolicy policy;
+    private final String target;
+    /**
+     * True if the query took a slot of the {@link PendingQueryBudget} of the component.
+     */
+    private boolean budgeted = false;
+
+    /**
+     * Creates a new pending query.
+     *
+     * @param id the id of the IQ packet that was sent.
+     * @param callerId the id that the caller gave to the packet. Listeners are notified using this id.
+     * @param listener the listener to notify of the answer.
+     * @param expires the time (in milliseconds) after which waiting for an answer should be stopped.
+     * @param packet the IQ packet that was sent or null if it is not known.
+     * @param policy what to do with the query if the connection is lost.
+     */
+    PendingQuery(String id, String callerId, IQResultListener listener, long expires, IQ packet,
+            PendingQueryPolicy policy) {
+        this.id = id;
+        this.callerId = callerId;
+        this.listener = listener;
+        this.expires = expires;
+        this.packet = packet;
+        this.policy = policy;
+        this.target = packet != null && packet.getTo() != null ? packet.getTo().toString() : null;
+    }
+
+    String getId() {
+        return id;
+    }
+
+    boolean isBudgeted() {
+        return budgeted;
+    }
+
+    void setBudgeted(boolean budgeted) {
+        this.budgeted = budgeted;
+    }
+
+    /**
+     * Notifies the listener of the answer to the query. The answer is given the ID that the
+     * caller gave to the query.
+     *
+     * @param answer the answer to the query.
+     */
+    void receivedAnswer(IQ answer) {
+        if (!id.equals(callerId)) {
+            answer.setID(callerId);
+        }
+        listener.receivedAnswer(answer);
+    }
+
+    /**
+     * Notifies the listener that the query timed out.
+     */
+    void answerTimeout() {
+        listener.answerTimeout(callerId);
+    }
+
+    IQ getPacket() {
+        return packet;
+    }
+
+    /**
+     * Returns the address the query was sent to or null if the query was sent to the server
+     * or the packet is not known.
+     *
+     * @return the address the query was sent to.
+     */
+    String getTarget() {
+        return target;
+    }
+
+    boolean isExpired(long now) {
+        return now >= expires;
+    }
+
+    /**
+     * Returns true if the query must be sent again once the connection has been reestablished.
+     * Only IQ gets are resent since those are idempotent.
+     *
+     * @return true if the query must be sent again after a reconnection.
+     */
+    boolean isResendable() {
+        return policy == PendingQueryPolicy.RESEND && packet != null && packet.getType() == IQ.Type.get;
+    }
+
+    /**
+     * Returns true if the query must be dropped as soon as the connection is lost.
+     *
+     * @return true if the query must be dropped as soon as the connection is lost.
+     */
+    boolean isFailFast() {
+        return policy == PendingQueryPolicy.FAIL || (policy == PendingQueryPolicy.RESEND && !isResendable());
+    }
+
+    /**
+     * Notifies the listener that the answer will not arrive because the connection was lost.
+     * Listeners that cannot tell a lost connection apart are notified of a timeout.
+     */
+    void connectionLost() {
+        connectionLost(listener, callerId);
+    }
+
+    /**
+     * Notifies the listener that the answer to the specified query will not arrive because the
+     * connection was lost. Listeners that cannot tell a lost connection apart are notified of a
+     * timeout.
+     *
+     * @param listener the listener to notify.
+     * @param packetId the id of the IQ packet that was sent.
+     */
+    static void connectionLost(IQResultListener listener, String packetId) {
+        if (listener instanceof DisconnectAwareIQResultListener) {
+            ((DisconnectAwareIQResultListener) listener).connectionLost(packetId);
+        }
+        else {
+            listener.answerTimeout(packetId);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/**
+ * Copyright 2026 Ignite Realtime Foundation
+ *
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.whack;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Counts the queries of a component that are waiting for an answer, in total and by target
+ * address, and limits how many of them may be outstanding at the same time. Every successful
+ * call to {@link #acquire(String, int, int, long)} must be followed by exactly one call to
+ * {@link #release(String)} with the same target.
+ */
+class PendingQueryBudget {
+
+    private int total = 0;
+    private final Map<String, Integer> byTarget = new HashMap<String, Integer>();
+
+    /**
+     * Takes a slot for a new query to the specified target. If no slot is available then the
+     * calling thread waits up to the specified time for other queries to complete.
+     *
+     * @param target the address the query is sent to or null for the server.
+     * @param maxTotal the maximum number of outstanding queries or zero for no limit.
+     * @param maxPerTarget the maximum number of outstanding queries to the target or zero for no limit.
+     * @param waitMillis the time to wait for a free slot or zero to fail right away.
+     * @return true if a slot was taken, false if no slot became available in time.
+     * @throws InterruptedException if the thread was interrupted while waiting for a slot.
+     */
+    synchronized boolean acquire(String target, int maxTotal, int maxPerTarget, long waitMillis)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + waitMillis;
+        while (!isAvailable(target, maxTotal, maxPerTarget)) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+        }
+        total++;
+        Integer count = byTarget.get(target);
+        byTarget.put(target, count == null ? 1 : count + 1);
+        return true;
+    }
+
+    private boolean isAvailable(String target, int maxTotal, int maxPerTarget) {
+        if (maxTotal > 0 && total >= maxTotal) {
+            return false;
+        }
+        if (maxPerTarget > 0) {
+            Integer count = byTarget.get(target);
+            return count == null || count < maxPerTarget;
+        }
+        return true;
+    }
+
+    /**
+     * Frees the slot of a query to the specified target that completed, timed out or failed.
+     *
+     * @param target the address the query was sent to or null for the server.
+     */
+    synchronized void release(String target) {
+        Integer count = byTarget.get(target);
+        if (count == null) {
+            return;
+        }
+        if (count > 1) {
+            byTarget.put(target, count - 1);
+        }
+        else {
+            byTarget.remove(target);
+        }
+        total--;
+        notifyAll();
+    }
+
+    /**
+     * Returns the number of outstanding queries.
+     *
+     * @return the number of outstanding queries.
+     */
+    synchronized int size() {
+        return total;
+    }
+
+    /**
+     * Returns the number of outstanding queries to the specified target.
+     *
+     * @param target the address the queries were sent to or null for the server.
+     * @return the number of outstanding queries to the target.
+     */
+    synchronized int size(String target) {
+        Integer count = byTarget.get(target);
+        return count == null ? 0 : count;
+    }
+}
@@ -0,0 +1,46 @@
+/**
+ * Copyright 2026 Ignite Realtime Foundation
+ *
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.whack;
+
+/**
+ * Defines what happens to a query that is waiting for an answer when the connection with the
+ * server is lost.
+ *
+ * @see ExternalComponentManager#setPendingQueryPolicy(PendingQueryPolicy)
+ */
+public enum PendingQueryPolicy {
+
+    /**
+     * Keep waiting for the answer until the query times out. Answers that were sent by the
+     * remote entity while the connection was down are lost, so in practice the query times out.
+     */
+    WAIT,
+
+    /**
+     * Stop waiting for the answer as soon as the connection is lost. Listeners that implement
+     * {@link DisconnectAwareIQResultListener} are notified of the disconnection, other listeners
+     * are notified of a timeout.
+     */
+    FAIL,
+
+    /**
+     * Send the query again once the connection has been reestablished. Only IQ gets are sent
+     * again since they are idempotent, other queries are treated as if the policy was
+     * {@link #FAIL}. The original timeout of the query still applies.
+     */
+    RESEND
+}
@@ -0,0 +1,100 @@
+/**
+ * Copyright 2026 Ignite Realtime Foundation
+ *
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.whack;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.xmpp.packet.JID;
+import org.xmpp.packet.Packet;
+import org.xmpp.packet.Presence;
+
+/**
+ * Coalesces the received presences of an address that are waiting to be processed. Every
+ * presence that is handed to the thread pool of a component takes a slot, by the full address
+ * of its sender and its recipient. A newer presence from the same sender to the same recipient
+ * that arrives before the thread pool got to the slot replaces the presence in the slot and is
+ * not queued itself, so only the latest availability of each sender for each recipient is
+ * processed, at the position of the first presence. Presences to different recipients, such
+ * as joins to different rooms, are never merged.<p>
+ *
+ * Only presences of availability (available and unavailable) are coalesced. Subscription
+ * presences, probes, errors, IQs and messages are processed one by one, in order.
+ */
+class PresenceCoalescer {
+
+    private final Map<String, Presence> queued = new HashMap<String, Presence>();
+    private long coalesced = 0;
+
+    /**
+     * Returns true if the specified packet is a presence that may be replaced by a newer
+     * presence.
+     *
+     * @param packet the received packet.
+     * @return true if the packet may be coalesced.
+     */
+    static boolean isCoalescable(Packet packet) {
+        if (!(packet instanceof Presence) || packet.getFrom() == null) {
+            return false;
+        }
+        Presence.Type type = ((Presence) packet).getType();
+        return type == null || type == Presence.Type.unavailable;
+    }
+
+    /**
+     * Records a received presence.
+     *
+     * @param presence a presence that may be coalesced.
+     * @return true if the presence replaced a presence that is waiting to be processed and
+     *         must not be queued, false if the presence takes a new slot and must be queued.
+     */
+    synchronized boolean offer(Presence presence) {
+        if (queued.put(getKey(presence), presence) != null) {
+            coalesced++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Frees the slot of a queued presence and returns the latest presence of its sender.
+     *
+     * @param presence the presence that was queued.
+     * @return the presence to process.
+     */
+    synchronized Presence take(Presence presence) {
+        Presence latest = queued.remove(getKey(presence));
+        return latest != null ? latest : presence;
+    }
+
+    /**
+     * Returns the key of the slot of a presence: the full addresses of its sender and of its
+     * recipient.
+     */
+    private static String getKey(Presence presence) {
+        JID to = presence.getTo();
+        return presence.getFrom().toString() + ' ' + (to != null ? to.toString() : "");
+    }
+
+    /**
+     * Returns the number of presences that were replaced by newer presences before they were
+     * processed.
+     */
+    synchronized long getCoalescedCount() {
+        return coalesced;
+    }
+}
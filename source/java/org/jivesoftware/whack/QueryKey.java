@@ -0,0 +1,188 @@
+/**
+ * Copyright 2026 Ignite Realtime Foundation
+ *
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.whack;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.dom4j.Attribute;
+import org.dom4j.Element;
+import org.dom4j.Node;
+import org.xmpp.packet.IQ;
+import org.xmpp.packet.JID;
+
+/**
+ * Identifies an outbound IQ get by its sender, its recipient, the namespace of its child element
+ * and a canonical form of that child element. Two IQ gets with an equal key ask the same question
+ * and can therefore share a single answer, regardless of their stanza IDs.<p>
+ *
+ * The canonical form of the child element ignores attribute order and whitespace-only text nodes,
+ * so that requests that were built in a different order still produce the same key. Namespaces,
+ * attribute values and text are quoted and escaped, so that different payloads never produce
+ * the same key, and text that is not only whitespace is kept as is.
+ */
+final class QueryKey {
+
+    private static final Comparator<Attribute> ATTRIBUTE_ORDER = new Comparator<Attribute>() {
+        public int compare(Attribute a1, Attribute a2) {
+            int result = a1.getNamespaceURI().compareTo(a2.getNamespaceURI());
+            return result != 0 ? result : a1.getName().compareTo(a2.getName());
+        }
+    };
+
+    private final String from;
+    private final String to;
+    private final String namespace;
+    private final String payload;
+    private final int hashCode;
+
+    private QueryKey(String from, String to, String namespace, String payload) {
+        this.from = from;
+        this.to = to;
+        this.namespace = namespace;
+        this.payload = payload;
+        int hash = from != null ? from.hashCode() : 0;
+        hash = 31 * hash + (to != null ? to.hashCode() : 0);
+        hash = 31 * hash + namespace.hashCode();
+        this.hashCode = 31 * hash + payload.hashCode();
+    }
+
+    /**
+     * Returns the key of the specified IQ packet or <tt>null</tt> if the packet is not an
+     * IQ get with a child element (only those are safe to share between callers).
+     *
+     * @param packet the IQ packet to create the key for.
+     * @param defaultFrom the address that the server will use as the sender of the packet
+     *        when the packet does not define one (i.e. the domain of the sending component).
+     * @return the key of the packet or null if the packet cannot be shared.
+     */
+    static QueryKey of(IQ packet, String defaultFrom) {
+        if (packet.getType() != IQ.Type.get) {
+            return null;
+        }
+        Element child = packet.getChildElement();
+        if (child == null) {
+            return null;
+        }
+        JID from = packet.getFrom();
+        JID to = packet.getTo();
+        StringBuilder payload = new StringBuilder(64);
+        canonicalize(child, payload);
+        return new QueryKey(from != null ? from.toString() : defaultFrom,
+                to != null ? to.toString() : null, child.getNamespaceURI(), payload.toString());
+    }
+
+    /**
+     * Appends a canonical representation of the element to the specified buffer. Attributes
+     * are sorted by namespace and name and whitespace-only text nodes are left out.
+     */
+    private static void canonicalize(Element element, StringBuilder buffer) {
+        buffer.append('<');
+        quote(element.getNamespaceURI(), buffer);
+        buffer.append(' ').append(element.getName());
+        List<Attribute> attributes = element.attributes();
+        if (attributes.size() > 1) {
+            attributes = new ArrayList<Attribute>(attributes);
+            Collections.sort(attributes, ATTRIBUTE_ORDER);
+        }
+        for (Attribute attribute : attributes) {
+            buffer.append(' ');
+            quote(attribute.getNamespaceURI(), buffer);
+            buffer.append(':').append(attribute.getName()).append('=');
+            quote(attribute.getValue(), buffer);
+        }
+        buffer.append('>');
+        for (int i = 0, size = element.nodeCount(); i < size; i++) {
+            Node node = element.node(i);
+            if (node instanceof Element) {
+                canonicalize((Element) node, buffer);
+            }
+            else if (node.getNodeType() == Node.TEXT_NODE || node.getNodeType() == Node.CDATA_SECTION_NODE) {
+                String text = node.getText();
+                if (text.trim().length() > 0) {
+                    quote(text, buffer);
+                }
+            }
+        }
+        buffer.append("</>");
+    }
+
+    /**
+     * Appends a value in double quotes, escaping the characters that could otherwise make two
+     * different values look the same.
+     */
+    private static void quote(String value, StringBuilder buffer) {
+        buffer.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char ch = value.charAt(i);
+            switch (ch) {
+                case '&': buffer.append("&amp;"); break;
+                case '"': buffer.append("&quot;"); break;
+                case '<': buffer.append("&lt;"); break;
+                default: buffer.append(ch);
+            }
+        }
+        buffer.append('"');
+    }
+
+    /**
+     * Returns the recipient of the query or <tt>null</tt> if the query was addressed to the
+     * server that the component is connected to.
+     *
+     * @return the recipient of the query.
+     */
+    String getTo() {
+        return to;
+    }
+
+    /**
+     * Returns the namespace of the child element of the query.
+     *
+     * @return the namespace of the child element of the query.
+     */
+    String getNamespace() {
+        return namespace;
+    }
+
+    @Override
+    public boolean equals(Object object) {
+        if (this == object) {
+            return true;
+        }
+        if (!(object instanceof QueryKey)) {
+            return false;
+        }
+        QueryKey other = (QueryKey) object;
+        return hashCode == other.hashCode
+                && namespace.equals(other.namespace)
+                && payload.equals(other.payload)
+                && (to == null ? other.to == null : to.equals(other.to))
+                && (from == null ? other.from == null : from.equals(other.from));
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public String toString() {
+        return "QueryKey[from=" + from + ", to=" + to + ", namespace=" + namespace + "]";
+    }
+}
@@ -0,0 +1,169 @@
+/**
+ * Copyright 2026 Ignite Realtime Foundation
+ *
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.whack;
+
+import java.util.PriorityQueue;
+import java.util.TimerTask;
+
+import org.jivesoftware.whack.util.TaskEngine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Coordinates the reconnection attempts of all components of an {@link ExternalComponentManager}.
+ * When the server restarts every component loses its connection at the same time. Instead of
+ * letting all of them connect and handshake at once, the coordinator runs at most a fixed number
+ * of attempts at the same time, starts attempts no closer to each other than a minimum interval
+ * and lets components with a higher priority go first.<p>
+ *
+ * Attempts are queued once their backoff delay has elapsed and run on the {@link TaskEngine}.
+ */
+class ReconnectCoordinator {
+
+    private static final Logger Log = LoggerFactory.getLogger(ReconnectCoordinator.class);
+
+    private final ExternalComponentManager manager;
+
+    /**
+     * Attempts that are due, ordered by priority and then by the order in which they became due.
+     */
+    private final PriorityQueue<Attempt> queue = new PriorityQueue<Attempt>();
+    private long sequence = 0;
+    private int running = 0;
+    /**
+     * Earliest time at which the next attempt may start.
+     */
+    private long nextStart = 0;
+    private boolean wakeUpScheduled = false;
+
+    ReconnectCoordinator(ExternalComponentManager manager) {
+        this.manager = manager;
+    }
+
+    /**
+     * Schedules a reconnection attempt of the specified component. The attempt is queued after
+     * the delay has elapsed and runs as soon as the limits of the coordinator allow it.
+     *
+     * @param subdomain the subdomain of the component that wants to reconnect.
+     * @param delay the delay, in milliseconds, before the attempt is queued.
+     * @param task the task that performs the attempt.
+     */
+    void schedule(final String subdomain, long delay, final Runnable task) {
+        TaskEngine.getInstance().schedule(new TimerTask() {
+            @Override
+            public void run() {
+                enqueue(subdomain, task);
+            }
+        }, delay);
+    }
+
+    private void enqueue(String subdomain, Runnable task) {
+        synchronized (this) {
+            queue.add(new Attempt(manager.getReconnectPriority(subdomain), sequence++, task));
+        }
+        dispatch();
+    }
+
+    /**
+     * Starts as many queued attempts as the limits allow. If the next attempt cannot start yet
+     * because of the minimum interval then a wake up is scheduled.
+     */
+    private void dispatch() {
+        while (true) {
+            final Attempt attempt;
+            synchronized (this) {
+                if (queue.isEmpty() || running >= manager.getMaxConcurrentReconnects()) {
+                    return;
+                }
+                long now = System.currentTimeMillis();
+                if (now < nextStart) {
+                    if (!wakeUpScheduled) {
+                        wakeUpScheduled = true;
+                        TaskEngine.getInstance().schedule(new TimerTask() {
+                            @Override
+                            public void run() {
+                                synchronized (ReconnectCoordinator.this) {
+                                    wakeUpScheduled = false;
+                                }
+                                dispatch();
+                            }
+                        }, nextStart - now);
+                    }
+                    return;
+                }
+                attempt = queue.poll();
+                running++;
+                nextStart = now + manager.getReconnectInterval();
+            }
+            TaskEngine.getInstance().submit(new Runnable() {
+                public void run() {
+                    try {
+                        attempt.task.run();
+                    }
+                    catch (Exception e) {
+                        Log.error("Error while trying to reconnect a component", e);
+                    }
+                    finally {
+                        synchronized (ReconnectCoordinator.this) {
+                            running--;
+                        }
+                        dispatch();
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Returns the number of reconnection attempts that are due but waiting for their turn.
+     *
+     * @return the number of queued reconnection attempts.
+     */
+    synchronized int getQueuedAttempts() {
+        return queue.size();
+    }
+
+    /**
+     * Returns the number of reconnection attempts that are currently running.
+     *
+     * @return the number of running reconnection attempts.
+     */
+    synchronized int getRunningAttempts() {
+        return running;
+    }
+
+    private static class Attempt implements Comparable<Attempt> {
+
+        private final int priority;
+        private final long sequence;
+        private final Runnable task;
+
+        Attempt(int priority, long sequence, Runnable task) {
+            this.priority = priority;
+            this.sequence = sequence;
+            this.task = task;
+        }
+
+        public int compareTo(Attempt other) {
+            if (priority != other.priority) {
+                // Higher priorities go first
+                return priority > other.priority ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+}
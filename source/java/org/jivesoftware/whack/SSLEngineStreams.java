@@ -0,0 +1,327 @@
+/**
+ * Copyright 2026 Ignite Realtime Foundation
+ *
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.whack;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+
+/**
+ * Runs TLS over a pair of streams using an {@link SSLEngine}. Unlike an SSLSocket, this works
+ * over any transport, such as a UNIX domain socket channel. One thread may read while another
+ * one writes, just like with a socket.
+ */
+class SSLEngineStreams {
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final SSLEngine engine;
+    private final InputStream in;
+    private final OutputStream out;
+
+    private final Object readLock = new Object();
+    private final Object writeLock = new Object();
+    /**
+     * Encrypted data read from the transport that was not decrypted yet, in read mode.
+     */
+    private ByteBuffer netIn;
+    /**
+     * Decrypted data that was not returned to the reader yet, in read mode.
+     */
+    private ByteBuffer appIn;
+    /**
+     * Encrypted data to be written to the transport. Only used while holding the write lock.
+     */
+    private ByteBuffer netOut;
+
+    private final InputStream inputStream = new InputStream() {
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return SSLEngineStreams.this.read(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            SSLEngineStreams.this.close();
+        }
+    };
+
+    private final OutputStream outputStream = new OutputStream() {
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            SSLEngineStreams.this.write(ByteBuffer.wrap(b, off, len));
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            SSLEngineStreams.this.close();
+        }
+    };
+
+    /**
+     * Creates new TLS streams.
+     *
+     * @param engine the engine in client mode.
+     * @param in the stream to read encrypted data from.
+     * @param out the stream to write encrypted data to.
+     */
+    SSLEngineStreams(SSLEngine engine, InputStream in, OutputStream out) {
+        this.engine = engine;
+        this.in = in;
+        this.out = out;
+        int packetSize = engine.getSession().getPacketBufferSize();
+        netIn = ByteBuffer.allocate(packetSize);
+        netIn.flip();
+        appIn = ByteBuffer.allocate(engine.getSession().getApplicationBufferSize());
+        appIn.flip();
+        netOut = ByteBuffer.allocate(packetSize);
+    }
+
+    /**
+     * Performs the TLS handshake. Must be invoked before the streams are used.
+     *
+     * @throws IOException if the handshake failed.
+     */
+    void handshake() throws IOException {
+        engine.beginHandshake();
+        while (true) {
+            switch (engine.getHandshakeStatus()) {
+                case NEED_WRAP:
+                    synchronized (writeLock) {
+                        wrap(EMPTY);
+                    }
+                    break;
+                case NEED_UNWRAP:
+                    synchronized (readLock) {
+                        if (unwrap() == SSLEngineResult.Status.CLOSED) {
+                            throw new SSLException("Connection closed during the TLS handshake");
+                        }
+                    }
+                    break;
+                case NEED_TASK:
+                    runDelegatedTasks();
+                    break;
+                default:
+                    return;
+            }
+        }
+    }
+
+    InputStream getInputStream() {
+        return inputStream;
+    }
+
+    OutputStream getOutputStream() {
+        return outputStream;
+    }
+
+    private int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        synchronized (readLock) {
+            while (!appIn.hasRemaining()) {
+                if (unwrap() == SSLEngineResult.Status.CLOSED) {
+                    return -1;
+                }
+                handlePostHandshake();
+            }
+            int count = Math.min(len, appIn.remaining());
+            appIn.get(b, off, count);
+            return count;
+        }
+    }
+
+    /**
+     * Decrypts one TLS record into the application buffer, reading from the transport as needed.
+     * Must be invoked while holding the read lock.
+     */
+    private SSLEngineResult.Status unwrap() throws IOException {
+        while (true) {
+            appIn.compact();
+            SSLEngineResult result;
+            try {
+                result = engine.unwrap(netIn, appIn);
+            }
+            finally {
+                appIn.flip();
+            }
+            switch (result.getStatus()) {
+                case OK:
+                    if (result.bytesProduced() > 0 || result.getHandshakeStatus() != SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING) {
+                        return SSLEngineResult.Status.OK;
+                    }
+                    break;
+                case BUFFER_UNDERFLOW:
+                    if (!fill()) {
+                        return SSLEngineResult.Status.CLOSED;
+                    }
+                    break;
+                case BUFFER_OVERFLOW:
+                    appIn = enlarge(appIn, engine.getSession().getApplicationBufferSize());
+                    break;
+                default:
+                    return SSLEngineResult.Status.CLOSED;
+            }
+        }
+    }
+
+    /**
+     * Reads encrypted data from the transport.
+     *
+     * @return false if the transport was closed.
+     */
+    private boolean fill() throws IOException {
+        netIn.compact();
+        try {
+            if (!netIn.hasRemaining()) {
+                netIn.flip();
+                netIn = enlarge(netIn, engine.getSession().getPacketBufferSize());
+                netIn.compact();
+            }
+            int count = in.read(netIn.array(), netIn.arrayOffset() + netIn.position(), netIn.remaining());
+            if (count < 0) {
+                engine.closeInbound();
+                return false;
+            }
+            netIn.position(netIn.position() + count);
+            return true;
+        }
+        finally {
+            netIn.flip();
+        }
+    }
+
+    /**
+     * Answers the handshake messages that the server may send after the handshake, such as a
+     * TLS 1.3 key update.
+     */
+    private void handlePostHandshake() throws IOException {
+        while (true) {
+            switch (engine.getHandshakeStatus()) {
+                case NEED_WRAP:
+                    synchronized (writeLock) {
+                        wrap(EMPTY);
+                    }
+                    break;
+                case NEED_TASK:
+                    runDelegatedTasks();
+                    break;
+                default:
+                    return;
+            }
+        }
+    }
+
+    private void write(ByteBuffer source) throws IOException {
+        synchronized (writeLock) {
+            do {
+                wrap(source);
+            }
+            while (source.hasRemaining());
+        }
+    }
+
+    /**
+     * Encrypts data and writes the TLS records to the transport. Must be invoked while holding
+     * the write lock.
+     */
+    private void wrap(ByteBuffer source) throws IOException {
+        while (true) {
+            netOut.clear();
+            SSLEngineResult result = engine.wrap(source, netOut);
+            switch (result.getStatus()) {
+                case BUFFER_OVERFLOW:
+                    netOut = ByteBuffer.allocate(Math.max(netOut.capacity() * 2,
+                            engine.getSession().getPacketBufferSize()));
+                    continue;
+                case CLOSED:
+                    if (result.bytesProduced() == 0) {
+                        throw new SSLException("TLS connection was closed");
+                    }
+                    break;
+                default:
+                    break;
+            }
+            netOut.flip();
+            out.write(netOut.array(), netOut.arrayOffset(), netOut.remaining());
+            if (result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                runDelegatedTasks();
+            }
+            return;
+        }
+    }
+
+    private void runDelegatedTasks() {
+        Runnable task;
+        while ((task = engine.getDelegatedTask()) != null) {
+            task.run();
+        }
+    }
+
+    /**
+     * Sends a close_notify alert and closes the transport.
+     */
+    private void close() throws IOException {
+        try {
+            synchronized (writeLock) {
+                engine.closeOutbound();
+                if (!engine.isOutboundDone()) {
+                    wrap(EMPTY);
+                    out.flush();
+                }
+            }
+        }
+        catch (IOException e) {
+            // Do nothing
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Returns a larger buffer, in read mode, with the remaining data of the specified buffer.
+     */
+    private static ByteBuffer enlarge(ByteBuffer buffer, int minimumCapacity) {
+        ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, minimumCapacity));
+        larger.put(buffer);
+        larger.flip();
+        return larger;
+    }
+}
@@ -0,0 +1,104 @@
+/**
+ * Copyright 2026 Ignite Realtime Foundation
+ *
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.whack;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Keeps the keys that SCRAM-SHA-1 derives from a password. Deriving the salted password runs
+ * thousands of iterations of PBKDF2, which would make every reconnection of every component
+ * expensive. The keys only change when the password, the salt or the iteration count change,
+ * so the result of the derivation is kept and reused.
+ */
+class ScramCredentialCache {
+
+    /**
+     * Maximum number of kept keys. The cache is cleared when it is full.
+     */
+    private static final int MAX_ENTRIES = 1000;
+
+    private final Map<String, Keys> keys = new ConcurrentHashMap<String, Keys>();
+
+    /**
+     * Returns the keys derived from the specified password, salt and iteration count.
+     *
+     * @param password the password.
+     * @param salt the salt sent by the server.
+     * @param iterations the iteration count sent by the server.
+     * @return the derived keys.
+     * @throws GeneralSecurityException if the keys could not be derived.
+     */
+    Keys get(String password, byte[] salt, int iterations) throws GeneralSecurityException {
+        String key = password + '\u0000' + Arrays.toString(salt) + '\u0000' + iterations;
+        Keys cached = keys.get(key);
+        if (cached == null) {
+            cached = derive(password, salt, iterations);
+            if (keys.size() >= MAX_ENTRIES) {
+                keys.clear();
+            }
+            keys.put(key, cached);
+        }
+        return cached;
+    }
+
+    private static Keys derive(String password, byte[] salt, int iterations) throws GeneralSecurityException {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, 160);
+        byte[] saltedPassword;
+        try {
+            saltedPassword = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1").generateSecret(spec).getEncoded();
+        }
+        finally {
+            spec.clearPassword();
+        }
+        byte[] clientKey = hmac(saltedPassword, "Client Key");
+        byte[] storedKey = MessageDigest.getInstance("SHA-1").digest(clientKey);
+        byte[] serverKey = hmac(saltedPassword, "Server Key");
+        return new Keys(clientKey, storedKey, serverKey);
+    }
+
+    static byte[] hmac(byte[] key, String data) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance("HmacSHA1");
+        mac.init(new SecretKeySpec(key, "HmacSHA1"));
+        return mac.doFinal(data.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * The keys that SCRAM-SHA-1 derives from a password.
+     */
+    static class Keys {
+
+        final byte[] clientKey;
+        final byte[] storedKey;
+        final byte[] serverKey;
+
+        Keys(byte[] clientKey, byte[] storedKey, byte[] serverKey) {
+            this.clientKey = clientKey;
+            this.storedKey = storedKey;
+            this.serverKey = serverKey;
+        }
+    }
+}
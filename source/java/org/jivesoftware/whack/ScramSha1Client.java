@@ -0,0 +1,154 @@
+/**
+ * Copyright 2026 Ignite Realtime Foundation
+ *
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.whack;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+import javax.security.sasl.SaslException;
+
+/**
+ * Client side of a single SCRAM-SHA-1 authentication (RFC 5802) without channel binding. The
+ * keys derived from the password are taken from a {@link ScramCredentialCache}.
+ */
+class ScramSha1Client {
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final ScramCredentialCache cache;
+    private final String username;
+    private final String password;
+    private final String clientNonce;
+    private String clientFirstMessageBare;
+    private byte[] expectedServerSignature;
+
+    ScramSha1Client(ScramCredentialCache cache, String username, String password) {
+        this.cache = cache;
+        this.username = username;
+        this.password = password;
+        byte[] nonce = new byte[24];
+        RANDOM.nextBytes(nonce);
+        this.clientNonce = Base64.getEncoder().encodeToString(nonce);
+    }
+
+    /**
+     * Returns the first message of the client.
+     *
+     * @return the first message of the client.
+     */
+    String getClientFirstMessage() {
+        clientFirstMessageBare = "n=" + escape(username) + ",r=" + clientNonce;
+        return "n,," + clientFirstMessageBare;
+    }
+
+    /**
+     * Returns the final message of the client as the answer to the first message of the server.
+     *
+     * @param serverFirstMessage the first message of the server.
+     * @return the final message of the client.
+     * @throws SaslException if the message of the server is invalid.
+     */
+    String getClientFinalMessage(String serverFirstMessage) throws SaslException {
+        String nonce = attribute(serverFirstMessage, 'r');
+        String salt = attribute(serverFirstMessage, 's');
+        String iterations = attribute(serverFirstMessage, 'i');
+        if (nonce == null || salt == null || iterations == null || !nonce.startsWith(clientNonce)) {
+            throw new SaslException("Invalid SCRAM-SHA-1 challenge: " + serverFirstMessage);
+        }
+        try {
+            ScramCredentialCache.Keys keys =
+                    cache.get(password, Base64.getDecoder().decode(salt), Integer.parseInt(iterations));
+            String clientFinalMessageWithoutProof = "c=biws,r=" + nonce;
+            String authMessage = clientFirstMessageBare + "," + serverFirstMessage + "," + clientFinalMessageWithoutProof;
+            byte[] clientSignature = ScramCredentialCache.hmac(keys.storedKey, authMessage);
+            byte[] proof = new byte[keys.clientKey.length];
+            for (int i = 0; i < proof.length; i++) {
+                proof[i] = (byte) (keys.clientKey[i] ^ clientSignature[i]);
+            }
+            expectedServerSignature = ScramCredentialCache.hmac(keys.serverKey, authMessage);
+            return clientFinalMessageWithoutProof + ",p=" + Base64.getEncoder().encodeToString(proof);
+        }
+        catch (IllegalArgumentException e) {
+            throw new SaslException("Invalid SCRAM-SHA-1 challenge: " + serverFirstMessage, e);
+        }
+        catch (GeneralSecurityException e) {
+            throw new SaslException("Unable to compute SCRAM-SHA-1 proof", e);
+        }
+    }
+
+    /**
+     * Verifies that the final message of the server proves that the server knows the password.
+     *
+     * @param serverFinalMessage the final message of the server.
+     * @throws SaslException if the server could not prove that it knows the password.
+     */
+    void verifyServerFinalMessage(String serverFinalMessage) throws SaslException {
+        String verifier = attribute(serverFinalMessage, 'v');
+        if (verifier == null || expectedServerSignature == null) {
+            throw new SaslException("Invalid SCRAM-SHA-1 outcome: " + serverFinalMessage);
+        }
+        try {
+            if (!MessageDigest.isEqual(expectedServerSignature, Base64.getDecoder().decode(verifier))) {
+                throw new SaslException("Server signature of SCRAM-SHA-1 does not match");
+            }
+        }
+        catch (IllegalArgumentException e) {
+            throw new SaslException("Invalid SCRAM-SHA-1 outcome: " + serverFinalMessage, e);
+        }
+    }
+
+    /**
+     * Encodes a SASL message in base 64. An empty message is encoded as "=".
+     */
+    static String encode(String message) {
+        if (message.isEmpty()) {
+            return "=";
+        }
+        return Base64.getEncoder().encodeToString(message.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decodes a SASL message encoded in base 64.
+     */
+    static String decode(String message) throws SaslException {
+        if (message == null || message.isEmpty() || "=".equals(message)) {
+            return "";
+        }
+        try {
+            return new String(Base64.getDecoder().decode(message), StandardCharsets.UTF_8);
+        }
+        catch (IllegalArgumentException e) {
+            throw new SaslException("Invalid base 64 data: " + message, e);
+        }
+    }
+
+    private static String attribute(String message, char name) {
+        for (String part : message.split(",")) {
+            if (part.length() > 1 && part.charAt(0) == name && part.charAt(1) == '=') {
+                return part.substring(2);
+            }
+        }
+        return null;
+    }
+
+    private static String escape(String name) {
+        return name.replace("=", "=3D").replace(",", "=2C");
+    }
+}
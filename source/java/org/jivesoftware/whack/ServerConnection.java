@@ -0,0 +1,703 @@
+/**
+ * Copyright 2005 Jive Software, 2026 Ignite Realtime Foundation
+ *
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.whack;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+
+import org.dom4j.DocumentException;
+import org.dom4j.Element;
+import org.dom4j.io.XMLWriter;
+import org.dom4j.io.XPPPacketReader;
+import org.jivesoftware.whack.util.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
+import org.xmpp.component.ComponentException;
+import org.xmpp.packet.StreamError;
+
+/**
+ * A single authenticated connection of an {@link ExternalComponent} with the server. Holds the
+ * socket, the reader and writer of the XML stream and the thread that reads stanzas from the
+ * stream. An ExternalComponent uses one connection to send stanzas and may keep another one
+ * as a hot standby.
+ */
+class ServerConnection {
+
+    private static final Logger Log = LoggerFactory.getLogger(ServerConnection.class);
+
+    /**
+     * The utf-8 charset for decoding and encoding XMPP packet streams.
+     */
+    private static String CHARSET = "UTF-8";
+
+    private final ExternalComponentManager manager;
+
+    private ServerEndpoint endpoint;
+    /**
+     * The socket or channel of the connection.
+     */
+    private Closeable transport;
+    /**
+     * The streams of the transport, encrypted if TLS is used but not compressed.
+     */
+    private InputStream input;
+    private OutputStream output;
+    /**
+     * True if the connection uses the component protocol of XEP-0225 instead of XEP-0114.
+     */
+    private boolean streamFeatures;
+    private boolean streamManagementOffered = false;
+    private volatile StreamManagement streamManagement;
+    private XPPPacketReader reader;
+    private ConnectionWriter writer;
+    /**
+     * The inflater and deflater of a compressed stream. Their native memory is released when the
+     * connection is closed.
+     */
+    private Inflater inflater;
+    private Deflater deflater;
+    private XMLWriter xmlSerializer;
+    private String connectionID;
+    private String domain;
+    /**
+     * Thread that will read the XML from the socket and ask the component to process the read
+     * packets.
+     */
+    private SocketReadThread readerThread;
+    private volatile boolean closed = false;
+    /**
+     * Timestamp when the last element was received from the server on this connection.
+     */
+    private volatile long lastReceived = System.currentTimeMillis();
+    private long tlsHandshakeTime = -1;
+    private boolean tlsSessionResumed = false;
+
+    ServerConnection(ExternalComponentManager manager) {
+        this.manager = manager;
+    }
+
+    /**
+     * Connects with the server, opens the stream and authenticates using the handshake of
+     * XEP-0114 or, if stream features are enabled for the subdomain, using the stream features
+     * of XEP-0225. If an error occurs in any of the steps then the socket is closed and a
+     * ComponentException is thrown.
+     *
+     * @param endpoint        the node of the server to connect with.
+     * @param subdomain       the subdomain that the component will be handling.
+     * @param domain          the domain that the component asks the server for.
+     * @param startEncrypted  true if sockets are started in TLS/SSL mode, otherwise false.
+     * @throws ComponentException if an error happens during the connection and authentication steps.
+     */
+    void open(ServerEndpoint endpoint, String subdomain, String domain, boolean startEncrypted)
+            throws ComponentException {
+        this.endpoint = endpoint;
+        this.domain = domain;
+        this.streamFeatures = manager.isStreamFeaturesEnabled(subdomain);
+        try {
+            if (endpoint.isUnixSocket()) {
+                // Open a UNIX domain socket to the server running on the same host
+                SocketChannel channel = UnixDomainSockets.connect(endpoint.getSocketFile());
+                this.transport = channel;
+                input = UnixDomainSockets.newInputStream(channel);
+                output = UnixDomainSockets.newOutputStream(channel);
+            }
+            else {
+                // Open a socket to the server
+                Socket socket = manager.getConnector().connect(endpoint.getHost(), endpoint.getPort(),
+                        manager.getConnectTimeout(), manager.getConnectStaggerDelay());
+                this.transport = socket;
+                input = socket.getInputStream();
+                output = socket.getOutputStream();
+            }
+            if (startEncrypted) {
+                startTls();
+            }
+
+            XmlPullParserFactory factory = XmlPullParserFactory.newInstance();
+            reader = new XPPPacketReader();
+            reader.setXPPFactory(factory);
+
+            setStreams(input, output);
+            openStream(subdomain, domain);
+
+            Element features = null;
+            if (streamFeatures) {
+                features = negotiateFeatures(subdomain, startEncrypted);
+            }
+            else {
+                // Handshake with the server
+                StringBuilder stream = new StringBuilder();
+                stream.append("<handshake>");
+                stream.append(StringUtils.hash(connectionID + manager.getSecretKey(subdomain)));
+                stream.append("</handshake>");
+                writer.write(stream.toString());
+                writer.flush();
+                stream = null;
+
+                // Get the answer from the server
+                Element doc = reader.parseDocument().getRootElement();
+                if ("error".equals(doc.getName())) {
+                    StreamError error = new StreamError(doc);
+                    // Close the connection
+                    close();
+                    // throw the exception with the wrapped error
+                    throw new ComponentException(error);
+                }
+            }
+
+            if (manager.isCompressionEnabled(subdomain)) {
+                if (features != null && features.element("compression") == null) {
+                    Log.warn("Server does not offer to compress the stream of {}", subdomain);
+                }
+                else {
+                    negotiateCompression(subdomain);
+                }
+            }
+        }
+        catch (ComponentException e) {
+            close();
+            throw e;
+        }
+        catch (DocumentException e) {
+            close();
+            throw new ComponentException(e);
+        }
+        catch (XmlPullParserException e) {
+            close();
+            throw new ComponentException(e);
+        }
+        catch (IOException ioe) {
+            close();
+            throw new ComponentException(ioe);
+        }
+        catch (GeneralSecurityException e) {
+            close();
+            throw new ComponentException(e);
+        }
+    }
+
+    /**
+     * Encrypts the transport of the connection using TLS.
+     */
+    private void startTls() throws IOException, GeneralSecurityException {
+        long start = System.nanoTime();
+        if (transport instanceof Socket) {
+            // Layering TLS with the host and port of the server lets the session be resumed when
+            // reconnecting to the same server
+            SSLSocket sslSocket = (SSLSocket) getSSLContext().getSocketFactory().createSocket(
+                    (Socket) transport, endpoint.getHost(), endpoint.getPort(), true);
+            this.transport = sslSocket;
+            sslSocket.setSoTimeout(manager.getConnectTimeout());
+            sslSocket.startHandshake();
+            handshakeCompleted(sslSocket.getSession(), start);
+            sslSocket.setSoTimeout(0);
+            input = sslSocket.getInputStream();
+            output = sslSocket.getOutputStream();
+        }
+        else {
+            // The server is identified by its domain since there is no host name. Sessions are
+            // only cached for a known port, so port 0 stands in for the socket.
+            SSLEngine engine = getSSLContext().createSSLEngine(domain, 0);
+            engine.setUseClientMode(true);
+            SSLEngineStreams tls = new SSLEngineStreams(engine, input, output);
+            tls.handshake();
+            handshakeCompleted(engine.getSession(), start);
+            input = tls.getInputStream();
+            output = tls.getOutputStream();
+        }
+    }
+
+    /**
+     * Negotiates the features offered by the server using the component protocol of XEP-0225:
+     * TLS, unless the connection is already encrypted, and SASL SCRAM-SHA-1 authentication.
+     * Finally records whether the server offers stream management.
+     *
+     * @param subdomain the subdomain that the component is handling.
+     * @param encrypted true if the connection is already encrypted.
+     * @return the features offered by the server after authentication.
+     */
+    private Element negotiateFeatures(String subdomain, boolean encrypted)
+            throws IOException, XmlPullParserException, DocumentException, ComponentException,
+            GeneralSecurityException {
+        Element features = readFeatures();
+        if (!encrypted && features.element("starttls") != null) {
+            writer.write("<starttls xmlns=\"urn:ietf:params:xml:ns:xmpp-tls\"/>");
+            writer.flush();
+            Element answer = reader.parseDocument().getRootElement();
+            if (!"proceed".equals(answer.getName())) {
+                throw new ComponentException("Server refused to start TLS: " + answer.asXML());
+            }
+            startTls();
+            restartStream(subdomain);
+            features = readFeatures();
+        }
+
+        authenticate(subdomain, features);
+        restartStream(subdomain);
+        features = readFeatures();
+        Element sm = features.element("sm");
+        streamManagementOffered = sm != null && "urn:xmpp:sm:3".equals(sm.getNamespaceURI());
+        return features;
+    }
+
+    /**
+     * Authenticates with the server using SASL SCRAM-SHA-1. The secret key of the subdomain is
+     * the password. The keys derived from the password are cached by the manager so that
+     * reconnections do not derive them again.
+     */
+    private void authenticate(String subdomain, Element features) throws IOException, DocumentException,
+            XmlPullParserException, ComponentException {
+        boolean offered = false;
+        Element mechanisms = features.element("mechanisms");
+        if (mechanisms != null) {
+            for (Element mechanism : mechanisms.elements("mechanism")) {
+                if ("SCRAM-SHA-1".equals(mechanism.getTextTrim())) {
+                    offered = true;
+                }
+            }
+        }
+        if (!offered) {
+            throw new ComponentException("Server does not offer SASL SCRAM-SHA-1 authentication");
+        }
+        ScramSha1Client scram = new ScramSha1Client(manager.getScramCredentialCache(), domain,
+                manager.getSecretKey(subdomain));
+        writer.write("<auth xmlns=\"urn:ietf:params:xml:ns:xmpp-sasl\" mechanism=\"SCRAM-SHA-1\">");
+        writer.write(ScramSha1Client.encode(scram.getClientFirstMessage()));
+        writer.write("</auth>");
+        writer.flush();
+
+        Element challenge = readSaslAnswer("challenge");
+        writer.write("<response xmlns=\"urn:ietf:params:xml:ns:xmpp-sasl\">");
+        writer.write(ScramSha1Client.encode(
+                scram.getClientFinalMessage(ScramSha1Client.decode(challenge.getTextTrim()))));
+        writer.write("</response>");
+        writer.flush();
+
+        Element success = readSaslAnswer("success");
+        scram.verifyServerFinalMessage(ScramSha1Client.decode(success.getTextTrim()));
+    }
+
+    private Element readSaslAnswer(String expected) throws DocumentException, IOException,
+            XmlPullParserException, ComponentException {
+        Element answer = reader.parseDocument().getRootElement();
+        if ("failure".equals(answer.getName())) {
+            List<Element> condition = answer.elements();
+            throw new ComponentException("SASL authentication failed: " +
+                    (condition.isEmpty() ? answer.asXML() : condition.get(0).getName()));
+        }
+        if ("error".equals(answer.getName())) {
+            throw new ComponentException(new StreamError(answer));
+        }
+        if (!expected.equals(answer.getName())) {
+            throw new ComponentException("Unexpected SASL answer: " + answer.asXML());
+        }
+        return answer;
+    }
+
+    private Element readFeatures() throws DocumentException, IOException, XmlPullParserException,
+            ComponentException {
+        Element features = reader.parseDocument().getRootElement();
+        if ("error".equals(features.getName())) {
+            throw new ComponentException(new StreamError(features));
+        }
+        if (!"features".equals(features.getName())) {
+            throw new ComponentException("Expected stream features but got: " + features.asXML());
+        }
+        return features;
+    }
+
+    /**
+     * Opens a new stream over the current streams of the connection, e.g. after TLS was started
+     * or authentication succeeded.
+     */
+    private void restartStream(String subdomain) throws IOException, XmlPullParserException {
+        setStreams(input, output);
+        openStream(subdomain, domain);
+    }
+
+    /**
+     * Returns true if the server offered stream management (XEP-0198) when the connection was
+     * opened using stream features.
+     *
+     * @return true if the server offered stream management.
+     */
+    boolean isStreamManagementOffered() {
+        return streamManagementOffered;
+    }
+
+    /**
+     * Enables stream management (XEP-0198) on this connection. Must be invoked before reading
+     * stanzas from the server.
+     *
+     * @return the ID to resume the session with, an empty string if the session cannot be
+     *         resumed or null if the server refused to enable stream management.
+     * @throws ComponentException if an error happens while enabling stream management.
+     */
+    String enableStreamManagement() throws ComponentException {
+        Element answer = requestStreamManagement("<enable xmlns=\"" + StreamManagement.NAMESPACE
+                + "\" resume=\"true\"/>");
+        if (!"enabled".equals(answer.getName())) {
+            Log.warn("Server refused to enable stream management: {}", answer.asXML());
+            return null;
+        }
+        String id = answer.attributeValue("id");
+        return id != null && "true".equals(answer.attributeValue("resume")) ? id : "";
+    }
+
+    /**
+     * Resumes a previous stream management session (XEP-0198) on this connection. Must be
+     * invoked before reading stanzas from the server.
+     *
+     * @param resumptionId the ID of the session to resume.
+     * @param received the number of stanzas that were received in the session.
+     * @return the number of stanzas that the server received in the session or -1 if the
+     *         session could not be resumed.
+     * @throws ComponentException if an error happens while resuming the session.
+     */
+    long resumeStreamManagement(String resumptionId, long received) throws ComponentException {
+        Element answer = requestStreamManagement("<resume xmlns=\"" + StreamManagement.NAMESPACE
+                + "\" h=\"" + received + "\" previd=\"" + StringUtils.escapeForXML(resumptionId) + "\"/>");
+        if (!"resumed".equals(answer.getName())) {
+            Log.info("Server could not resume the stream management session: {}", answer.asXML());
+            return -1;
+        }
+        try {
+            return Long.parseLong(answer.attributeValue("h"));
+        }
+        catch (NumberFormatException e) {
+            close();
+            throw new ComponentException("Invalid answer to resumption request: " + answer.asXML());
+        }
+    }
+
+    private Element requestStreamManagement(String request) throws ComponentException {
+        try {
+            writer.write(request);
+            writer.flush();
+            Element answer = reader.parseDocument().getRootElement();
+            if ("error".equals(answer.getName())) {
+                close();
+                throw new ComponentException(new StreamError(answer));
+            }
+            return answer;
+        }
+        catch (DocumentException e) {
+            close();
+            throw new ComponentException(e);
+        }
+        catch (XmlPullParserException e) {
+            close();
+            throw new ComponentException(e);
+        }
+        catch (IOException e) {
+            close();
+            throw new ComponentException(e);
+        }
+    }
+
+    /**
+     * Returns the stream management session that this connection takes part in or null if
+     * stream management is not enabled on this connection.
+     *
+     * @return the stream management session or null.
+     */
+    StreamManagement getStreamManagement() {
+        return streamManagement;
+    }
+
+    void setStreamManagement(StreamManagement streamManagement) {
+        this.streamManagement = streamManagement;
+    }
+
+    private SSLContext getSSLContext() throws GeneralSecurityException {
+        SSLContext context = manager.getSSLContext();
+        return context != null ? context : SSLContext.getDefault();
+    }
+
+    /**
+     * Records the duration of the TLS handshake and whether the session was resumed from the
+     * session that was established with the same node before.
+     */
+    private void handshakeCompleted(SSLSession session, long start) {
+        long duration = System.nanoTime() - start;
+        tlsHandshakeTime = TimeUnit.NANOSECONDS.toMillis(duration);
+        tlsSessionResumed = isResumption(manager.swapTlsSession(endpoint, session), session);
+        Log.debug("TLS handshake with {} took {} ms (session resumed: {})", endpoint, tlsHandshakeTime,
+                tlsSessionResumed);
+    }
+
+    /**
+     * Returns true if a TLS session was resumed from the previous session with the same peer.
+     * Up to TLS 1.2 a resumed session is the previous session itself, or at least has its ID.
+     * TLS 1.3 resumes with a pre-shared key and gives the resumed session a new ID, but the
+     * session keeps the creation time of the session that the key was issued for, while a full
+     * handshake creates a session after the previous one.
+     *
+     * @param previous the previous session with the peer or null if there was none.
+     * @param session the session that was just established.
+     * @return true if the session was resumed.
+     */
+    static boolean isResumption(SSLSession previous, SSLSession session) {
+        if (previous == null) {
+            return false;
+        }
+        if (previous == session) {
+            return true;
+        }
+        if ("TLSv1.3".equals(session.getProtocol())) {
+            return session.getCreationTime() == previous.getCreationTime();
+        }
+        byte[] id = session.getId();
+        return id != null && id.length > 0 && Arrays.equals(id, previous.getId());
+    }
+
+    /**
+     * Returns the time, in milliseconds, that the TLS handshake took or -1 if the connection is
+     * not encrypted.
+     *
+     * @return the time that the TLS handshake took or -1.
+     */
+    long getTlsHandshakeTime() {
+        return tlsHandshakeTime;
+    }
+
+    /**
+     * Returns true if the TLS handshake resumed a previous session with the server.
+     *
+     * @return true if the TLS session was resumed.
+     */
+    boolean isTlsSessionResumed() {
+        return tlsSessionResumed;
+    }
+
+    /**
+     * Uses the specified streams to read and write the XML stream.
+     */
+    private void setStreams(InputStream input, OutputStream output) throws IOException, XmlPullParserException {
+        reader.getXPPParser().setInput(new InputStreamReader(input, CHARSET));
+        writer = new ConnectionWriter(output, CHARSET);
+        xmlSerializer = new XMLWriter(writer);
+    }
+
+    /**
+     * Sends the opening tag of the stream and reads the opening tag of the stream of the server.
+     */
+    private void openStream(String subdomain, String domain) throws IOException, XmlPullParserException {
+        // Open the stream.
+        StringBuilder stream = new StringBuilder();
+        stream.append("<stream:stream");
+        if (streamFeatures) {
+            stream.append(" xmlns=\"urn:xmpp:component:0\"");
+            stream.append(" version=\"1.0\"");
+        }
+        else {
+            stream.append(" xmlns=\"jabber:component:accept\"");
+        }
+        stream.append(" xmlns:stream=\"http://etherx.jabber.org/streams\"");
+        if (manager.isMultipleAllowed(subdomain)) {
+            stream.append(" allowMultiple=\"true\"");
+        }
+        stream.append(" to=\"").append(domain).append("\">");
+        writer.write(stream.toString());
+        writer.flush();
+
+        // Get the answer from the server
+        XmlPullParser xpp = reader.getXPPParser();
+        for (int eventType = xpp.getEventType(); eventType != XmlPullParser.START_TAG;) {
+            eventType = xpp.next();
+        }
+
+        // Set the streamID returned from the server
+        connectionID = xpp.getAttributeValue("", "id");
+        if (xpp.getAttributeValue("", "from") != null) {
+            this.domain = xpp.getAttributeValue("", "from");
+        }
+    }
+
+    /**
+     * Asks the server to compress the stream using zlib (XEP-0138). If the server agrees then
+     * both streams are compressed from now on and the stream is restarted. If the server does
+     * not support compression then the stream stays uncompressed.
+     *
+     * @param subdomain the subdomain that the component is handling.
+     */
+    private void negotiateCompression(String subdomain)
+            throws IOException, XmlPullParserException, DocumentException, ComponentException {
+        writer.write("<compress xmlns=\"http://jabber.org/protocol/compress\"><method>zlib</method></compress>");
+        writer.flush();
+
+        Element answer = reader.parseDocument().getRootElement();
+        if ("failure".equals(answer.getName())) {
+            Log.warn("Server refused to compress the stream of {}: {}", subdomain, answer.asXML());
+            return;
+        }
+        if ("error".equals(answer.getName())) {
+            StreamError error = new StreamError(answer);
+            close();
+            throw new ComponentException(error);
+        }
+        if (!"compressed".equals(answer.getName())) {
+            close();
+            throw new ComponentException("Unexpected answer to compression request: " + answer.asXML());
+        }
+        // The deflater and inflater are used for the whole life of the connection
+        inflater = new Inflater();
+        deflater = new Deflater();
+        setStreams(new InflaterInputStream(input, inflater),
+                new ZlibOutputStream(output, deflater, manager.getCompressionFlushMode()));
+        openStream(subdomain, domain);
+        if (streamFeatures) {
+            // The server offers the remaining features again
+            readFeatures();
+        }
+    }
+
+    /**
+     * Starts reading stanzas from the server. Read stanzas are processed by the component.
+     *
+     * @param component the component that processes the read stanzas.
+     */
+    void startReading(ExternalComponent component) {
+        readerThread = new SocketReadThread(component, this, reader);
+        readerThread.setDaemon(true);
+        readerThread.start();
+    }
+
+    /**
+     * Returns the node of the server that the connection was opened with.
+     *
+     * @return the node of the server.
+     */
+    ServerEndpoint getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * Returns the ID of the stream that was assigned by the server.
+     *
+     * @return the ID of the stream.
+     */
+    String getConnectionID() {
+        return connectionID;
+    }
+
+    /**
+     * Returns the domain of the component as confirmed by the server.
+     *
+     * @return the domain of the component.
+     */
+    String getDomain() {
+        return domain;
+    }
+
+    ConnectionWriter getWriter() {
+        return writer;
+    }
+
+    XMLWriter getXmlSerializer() {
+        return xmlSerializer;
+    }
+
+    /**
+     * Records that an element was received from the server on this connection.
+     */
+    void received() {
+        lastReceived = System.currentTimeMillis();
+    }
+
+    /**
+     * Returns the time when the last element was received from the server on this connection
+     * or, if none was received yet, when the connection was created.
+     *
+     * @return the time when the last element was received.
+     */
+    long getLastReceived() {
+        return lastReceived;
+    }
+
+    /**
+     * Returns true if the connection was closed.
+     *
+     * @return true if the connection was closed.
+     */
+    boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Closes the stream and the socket. Must be invoked while holding the write lock of the
+     * component if the connection is being used to send stanzas.
+     */
+    void closeStream() {
+        if (!closed && writer != null) {
+            try {
+                writer.write("</stream:stream>");
+                writer.flush();
+            }
+            catch (IOException e) {
+                // Do nothing
+            }
+        }
+        close();
+    }
+
+    /**
+     * Closes the socket without closing the stream. The reader thread is stopped without
+     * reporting the closed socket.
+     */
+    void close() {
+        closed = true;
+        if (readerThread != null) {
+            readerThread.shutdown();
+        }
+        if (transport != null) {
+            try {
+                transport.close();
+            }
+            catch (IOException e) {
+                // Do nothing
+            }
+        }
+        // The streams do not end an inflater or deflater that they were given
+        if (inflater != null) {
+            inflater.end();
+        }
+        if (deflater != null) {
+            deflater.end();
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/**
+ * Copyright 2026 Ignite Realtime Foundation
+ *
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.whack;
+
+import java.io.File;
+
+/**
+ * The address of one node of an XMPP server cluster that accepts external components. Any host
+ * and port may be used, so a cluster can be replaced by local servers listening on different
+ * ports (e.g. in tests).<p>
+ *
+ * A server that runs on the same host as the components may also be reached through a UNIX
+ * domain socket, which avoids the overhead of TCP over the loopback interface. UNIX domain
+ * sockets require Java 16 or later.
+ *
+ * @see ExternalComponentManager#setServerEndpoints(java.util.List)
+ */
+public final class ServerEndpoint {
+
+    private final String host;
+    private final int port;
+    private final File socketFile;
+
+    /**
+     * Creates a new endpoint.
+     *
+     * @param host the IP address or name of the node (e.g. "node1.example.com").
+     * @param port the port of the node that accepts external components.
+     */
+    public ServerEndpoint(String host, int port) {
+        if (host == null) {
+            throw new IllegalArgumentException("Host of XMPP server cannot be null");
+        }
+        this.host = host;
+        this.port = port;
+        this.socketFile = null;
+    }
+
+    /**
+     * Creates a new endpoint that connects through a UNIX domain socket.
+     *
+     * @param socketFile the file of the UNIX domain socket the server listens on.
+     */
+    public ServerEndpoint(File socketFile) {
+        if (socketFile == null) {
+            throw new IllegalArgumentException("Socket file of XMPP server cannot be null");
+        }
+        this.host = null;
+        this.port = -1;
+        this.socketFile = socketFile;
+    }
+
+    /**
+     * Returns the IP address or name of the node or <tt>null</tt> if the node is reached
+     * through a UNIX domain socket.
+     *
+     * @return the IP address or name of the node or null.
+     */
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * Returns the port of the node that accepts external components.
+     *
+     * @return the port of the node.
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Returns the file of the UNIX domain socket of the node or <tt>null</tt> if the node is
+     * reached through TCP.
+     *
+     * @return the file of the UNIX domain socket of the node or null.
+     */
+    public File getSocketFile() {
+        return socketFile;
+    }
+
+    /**
+     * Returns true if the node is reached through a UNIX domain socket.
+     *
+     * @return true if the node is reached through a UNIX domain socket.
+     */
+    public boolean isUnixSocket() {
+        return socketFile != null;
+    }
+
+    @Override
+    public boolean equals(Object object) {
+        if (this == object) {
+            return true;
+        }
+        if (!(object instanceof ServerEndpoint)) {
+            return false;
+        }
+        ServerEndpoint other = (ServerEndpoint) object;
+        if (socketFile != null) {
+            return socketFile.equals(other.socketFile);
+        }
+        return other.socketFile == null && port == other.port && host.equals(other.host);
+    }
+
+    @Override
+    public int hashCode() {
+        if (socketFile != null) {
+            return socketFile.hashCode();
+        }
+        return host.hashCode() * 31 + port;
+    }
+
+    @Override
+    public String toString() {
+        if (socketFile != null) {
+            return "unix:" + socketFile.getPath();
+        }
+        return host + ":" + port;
+    }
+}
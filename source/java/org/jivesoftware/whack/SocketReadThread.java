@@ -33,7 +33,8 @@ class SocketReadThread extends Thread {
     private static final Logger Log = LoggerFactory.getLogger(SocketReadThread.class);
 
     private ExternalComponent component;
-    private boolean shutdown = false;
+    private ServerConnection connection;
+    private volatile boolean shutdown = false;
 
     XPPPacketReader reader = null;
 
@@ -41,11 +42,13 @@ class SocketReadThread extends Thread {
      * Create dedicated read thread for this socket.
      *
      * @param component  The component for which this thread is reading for
+     * @param connection The connection with the server that is being read
      * @param reader     The reader to use for reading
      */
-    public SocketReadThread(ExternalComponent component, XPPPacketReader reader) {
+    public SocketReadThread(ExternalComponent component, ServerConnection connection, XPPPacketReader reader) {
         super("Component socket reader");
         this.component = component;
+        this.connection = connection;
         this.reader = reader;
     }
 
@@ -62,7 +65,7 @@ class SocketReadThread extends Thread {
             // log the error and try to establish a new connection
             if (!shutdown) {
                 Log.error("Unexpected exception", e);
-                component.connectionLost();
+                component.connectionLost(connection);
             }
         }
     }
@@ -72,6 +75,8 @@ class SocketReadThread extends Thread {
      */
     private void readStream() throws Exception {
         while (!shutdown) {
+            // Stop reading while the component is far behind
+            component.awaitInboundCapacity();
             Element doc = reader.parseDocument().getRootElement();
 
             if (doc == null) {
@@ -79,6 +84,14 @@ class SocketReadThread extends Thread {
                 // probably closed the connection
                 return;
             }
+            // Any element received from the server proves that the connection is alive
+            component.received(connection);
+
+            if (StreamManagement.NAMESPACE.equals(doc.getNamespaceURI())) {
+                // Acknowledgements and acknowledgement requests of stream management
+                component.processStreamManagement(connection, doc);
+                continue;
+            }
 
             Packet packet;
             String tag = doc.getName();
@@ -94,8 +107,13 @@ class SocketReadThread extends Thread {
             else {
                 throw new XmlPullParserException("Unknown packet type was read: " + tag);
             }
-            // Request the component to process the received packet
-            component.processPacket(packet);
+            StreamManagement streamManagement = connection.getStreamManagement();
+            if (streamManagement != null) {
+                streamManagement.received();
+            }
+            // Request the component to process the received packet, or to defer it while the
+            // component is falling behind
+            component.processReceived(packet);
         }
     }
 
@@ -0,0 +1,64 @@
+/**
+ * Copyright 2026 Ignite Realtime Foundation
+ *
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.whack;
+
+import org.xmpp.packet.IQ;
+import org.xmpp.packet.Message;
+import org.xmpp.packet.Packet;
+
+/**
+ * Classifies outbound stanzas for the features that treat them differently, such as the
+ * {@link OutboundBuffer} which only keeps the kinds of stanzas that may be replayed.
+ */
+public enum StanzaKind {
+
+    /**
+     * An IQ of type result or error.
+     */
+    IQ_RESPONSE,
+
+    /**
+     * An IQ of type get or set.
+     */
+    IQ_REQUEST,
+
+    /**
+     * A message stanza.
+     */
+    MESSAGE,
+
+    /**
+     * A presence stanza.
+     */
+    PRESENCE;
+
+    /**
+     * Returns the kind of the specified packet.
+     *
+     * @param packet the packet to classify.
+     * @return the kind of the packet.
+     */
+    public static StanzaKind of(Packet packet) {
+        if (packet instanceof IQ) {
+            return ((IQ) packet).isResponse() ? IQ_RESPONSE : IQ_REQUEST;
+        }
+        if (packet instanceof Message) {
+            return MESSAGE;
+        }
+        return PRESENCE;
+    }
+}
@@ -0,0 +1,128 @@
+/**
+ * Copyright 2026 Ignite Realtime Foundation
+ *
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.whack;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.dom4j.Attribute;
+import org.dom4j.Element;
+import org.xmpp.packet.JID;
+import org.xmpp.packet.Packet;
+
+/**
+ * A stanza that is sent to many recipients. The stanza is serialized and encoded once, without
+ * its 'to' attribute, and every copy only adds the address of its recipient. Sending the same
+ * stanza to thousands of recipients therefore costs about as much as writing the addresses,
+ * no matter how large the stanza is.<p>
+ *
+ * Templates are immutable and may be used by many threads and sent many times.
+ *
+ * @see ExternalComponent#fanOut(StanzaTemplate, java.util.Collection)
+ */
+public class StanzaTemplate {
+
+    private final Packet packet;
+    private final String prefix;
+    private final String suffix;
+    private final byte[] encodedPrefix;
+    private final byte[] encodedSuffix;
+
+    /**
+     * Creates a template from the specified packet. The 'to' attribute of the packet, if any,
+     * is ignored. Later changes to the packet do not affect the template.
+     *
+     * @param packet the packet to send to many recipients.
+     */
+    public StanzaTemplate(Packet packet) {
+        this.packet = packet.createCopy();
+        Element element = this.packet.getElement();
+        Attribute to = element.attribute("to");
+        if (to != null) {
+            element.remove(to);
+        }
+        String xml = element.asXML();
+        // The address goes right after the name of the element
+        int split = 1 + element.getQualifiedName().length();
+        prefix = xml.substring(0, split) + " to=\"";
+        suffix = "\"" + xml.substring(split);
+        encodedPrefix = prefix.getBytes(StandardCharsets.UTF_8);
+        encodedSuffix = suffix.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns a packet of the template addressed to the specified recipient.
+     *
+     * @param recipient the recipient of the packet.
+     * @return a new packet.
+     */
+    public Packet createPacket(JID recipient) {
+        Packet copy = packet.createCopy();
+        copy.setTo(recipient);
+        return copy;
+    }
+
+    /**
+     * Returns the XML of the stanza addressed to the specified recipient.
+     *
+     * @param recipient the recipient of the stanza.
+     * @return the XML of the stanza.
+     */
+    public String toXML(JID recipient) {
+        return prefix + escape(recipient.toString()) + suffix;
+    }
+
+    /**
+     * Writes the stanza addressed to the specified recipient without flushing the writer.
+     */
+    void write(ConnectionWriter writer, JID recipient) throws IOException {
+        writer.writeEncoded(encodedPrefix);
+        writer.write(escape(recipient.toString()));
+        writer.writeEncoded(encodedSuffix);
+    }
+
+    /**
+     * Escapes the characters of an address that may not appear in an attribute value. Most
+     * addresses have none, in which case the address itself is returned.
+     */
+    private static String escape(String address) {
+        StringBuilder escaped = null;
+        for (int i = 0; i < address.length(); i++) {
+            char ch = address.charAt(i);
+            String entity;
+            switch (ch) {
+                case '&': entity = "&amp;"; break;
+                case '<': entity = "&lt;"; break;
+                case '>': entity = "&gt;"; break;
+                case '"': entity = "&quot;"; break;
+                default: entity = null;
+            }
+            if (entity == null) {
+                if (escaped != null) {
+                    escaped.append(ch);
+                }
+                continue;
+            }
+            if (escaped == null) {
+                escaped = new StringBuilder(address.length() + 16);
+                escaped.append(address, 0, i);
+            }
+            escaped.append(entity);
+        }
+        return escaped != null ? escaped.toString() : address;
+    }
+}
@@ -0,0 +1,169 @@
+/**
+ * Copyright 2026 Ignite Realtime Foundation
+ *
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.whack;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * State of a stream management session (XEP-0198) of a component. The state survives the
+ * connections of the component so that a new connection can resume the session.<p>
+ *
+ * Sent stanzas are kept in a ring buffer until the server acknowledges them. When the session
+ * is resumed only the stanzas that the server did not acknowledge are sent again. The ring
+ * buffer has a fixed capacity, so when the server does not acknowledge stanzas fast enough the
+ * oldest unacknowledged stanzas are dropped from the buffer and will not be sent again.
+ */
+class StreamManagement {
+
+    static final String NAMESPACE = "urn:xmpp:sm:3";
+    static final String ACK_REQUEST = "<r xmlns=\"" + NAMESPACE + "\"/>";
+
+    private final String[] ring;
+    /**
+     * Identifies the session when resuming it or null if there is no resumable session.
+     */
+    private String resumptionId;
+    /**
+     * Number of stanzas sent in the session.
+     */
+    private long sent = 0;
+    /**
+     * Number of sent stanzas acknowledged by the server or dropped from the ring buffer.
+     */
+    private long acked = 0;
+    /**
+     * Number of stanzas received in the session.
+     */
+    private long received = 0;
+    private int sentSinceRequest = 0;
+
+    /**
+     * Creates the state of a stream management session.
+     *
+     * @param capacity the maximum number of unacknowledged stanzas kept for resending.
+     */
+    StreamManagement(int capacity) {
+        this.ring = new String[capacity];
+    }
+
+    /**
+     * Starts a new session. The counters are reset and the unacknowledged stanzas are discarded.
+     *
+     * @param resumptionId the ID of the session or null if it cannot be resumed.
+     */
+    synchronized void start(String resumptionId) {
+        this.resumptionId = resumptionId;
+        sent = 0;
+        acked = 0;
+        received = 0;
+        sentSinceRequest = 0;
+        for (int i = 0; i < ring.length; i++) {
+            ring[i] = null;
+        }
+    }
+
+    synchronized String getResumptionId() {
+        return resumptionId;
+    }
+
+    /**
+     * Records a stanza that was sent to the server.
+     *
+     * @param stanza the XML of the sent stanza.
+     * @param requestInterval the number of stanzas after which an acknowledgement is requested.
+     * @return true if an acknowledgement should be requested now.
+     */
+    synchronized boolean sent(String stanza, int requestInterval) {
+        if (sent - acked == ring.length) {
+            // The buffer is full. Give up the oldest stanza.
+            ring[(int) (acked % ring.length)] = null;
+            acked++;
+        }
+        ring[(int) (sent % ring.length)] = stanza;
+        sent++;
+        if (++sentSinceRequest >= requestInterval) {
+            sentSinceRequest = 0;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Prepares to send again the stanzas that were not acknowledged after the session was
+     * resumed. The stanzas are removed from the ring buffer so that they are recorded again,
+     * with the same sequence numbers, when they are sent again.
+     *
+     * @param h the number of stanzas that the server received in the session.
+     * @return the unacknowledged stanzas, in the order they were sent.
+     */
+    synchronized List<String> resume(long h) {
+        acked(h);
+        List<String> unacked = getUnacked();
+        // Continue counting from the count of the server, which is lower if stanzas were dropped
+        acked = Math.min(h, acked);
+        sent = acked;
+        sentSinceRequest = 0;
+        for (int i = 0; i < ring.length; i++) {
+            ring[i] = null;
+        }
+        return unacked;
+    }
+
+    /**
+     * Removes the stanzas that the server acknowledged from the ring buffer.
+     *
+     * @param h the number of stanzas that the server received in the session.
+     */
+    synchronized void acked(long h) {
+        if (h > sent) {
+            h = sent;
+        }
+        while (acked < h) {
+            ring[(int) (acked % ring.length)] = null;
+            acked++;
+        }
+    }
+
+    /**
+     * Returns the stanzas that were sent but not acknowledged yet, in the order they were sent.
+     *
+     * @return the unacknowledged stanzas.
+     */
+    synchronized List<String> getUnacked() {
+        List<String> unacked = new ArrayList<String>((int) (sent - acked));
+        for (long i = acked; i < sent; i++) {
+            unacked.add(ring[(int) (i % ring.length)]);
+        }
+        return unacked;
+    }
+
+    synchronized int getUnackedCount() {
+        return (int) (sent - acked);
+    }
+
+    /**
+     * Records a stanza that was received from the server.
+     */
+    synchronized void received() {
+        received++;
+    }
+
+    synchronized long getReceived() {
+        return received;
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ * Copyright 2026 Ignite Realtime Foundation
+ *
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.whack;
+
+/**
+ * A token bucket that limits a rate of stanzas while allowing short bursts. Tokens are added
+ * at a fixed rate up to the size of the bucket and every stanza takes one token.<p>
+ *
+ * Callers reserve tokens before they have them: a reservation may leave the bucket in debt and
+ * tells the caller how long to wait until its tokens would have been added. Callers therefore
+ * take turns in the order they reserved, without polling the bucket.
+ */
+class TokenBucket {
+
+    /**
+     * Tokens added per nanosecond.
+     */
+    private final double rate;
+    private final double capacity;
+    private double tokens;
+    private long lastRefill;
+
+    /**
+     * Creates a full bucket.
+     *
+     * @param perSecond the number of tokens added per second.
+     * @param burst the maximum number of tokens in the bucket.
+     */
+    TokenBucket(double perSecond, int burst) {
+        this.rate = perSecond / 1000000000d;
+        this.capacity = burst;
+        this.tokens = burst;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * Reserves tokens if they become available in time.
+     *
+     * @param count the number of tokens to reserve.
+     * @param now the current value of {@link System#nanoTime()}.
+     * @param maxWait the maximum time, in nanoseconds, that the caller is willing to wait.
+     * @return the time, in nanoseconds, to wait until the reserved tokens are available or -1 if
+     *         that would take longer than the maximum wait, in which case nothing is reserved.
+     */
+    synchronized long reserve(int count, long now, long maxWait) {
+        refill(now);
+        double remaining = tokens - count;
+        long wait = remaining >= 0 ? 0 : (long) Math.ceil(-remaining / rate);
+        if (wait > maxWait) {
+            return -1;
+        }
+        tokens = remaining;
+        return wait;
+    }
+
+    /**
+     * Gives back tokens that were reserved but will not be used.
+     *
+     * @param count the number of tokens to give back.
+     */
+    synchronized void release(int count) {
+        tokens = Math.min(capacity, tokens + count);
+    }
+
+    private void refill(long now) {
+        if (now > lastRefill) {
+            tokens = Math.min(capacity, tokens + (now - lastRefill) * rate);
+            lastRefill = now;
+        }
+    }
+}
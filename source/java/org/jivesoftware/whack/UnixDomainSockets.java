@@ -0,0 +1,167 @@
+/**
+ * Copyright 2026 Ignite Realtime Foundation
+ *
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.whack;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Opens connections through UNIX domain sockets. UNIX domain socket channels were added in
+ * Java 16 while Whack runs on Java 11, so the channel is opened using reflection and this
+ * transport is only available when running on Java 16 or later.<p>
+ *
+ * The streams returned by this class read from and write to the channel directly, so one thread
+ * can read while another one writes. The streams of {@link java.nio.channels.Channels} do not
+ * allow that on all Java versions.
+ */
+final class UnixDomainSockets {
+
+    private static final ProtocolFamily UNIX;
+    private static final Method ADDRESS_OF;
+    private static final Method OPEN;
+
+    static {
+        ProtocolFamily family = null;
+        Method addressOf = null;
+        Method open = null;
+        try {
+            family = StandardProtocolFamily.valueOf("UNIX");
+            addressOf = Class.forName("java.net.UnixDomainSocketAddress").getMethod("of", String.class);
+            open = SocketChannel.class.getMethod("open", ProtocolFamily.class);
+        }
+        catch (Exception e) {
+            // Running on a Java version without UNIX domain socket channels
+            family = null;
+        }
+        UNIX = family;
+        ADDRESS_OF = addressOf;
+        OPEN = open;
+    }
+
+    private UnixDomainSockets() {
+    }
+
+    /**
+     * Returns true if the running Java version supports UNIX domain socket channels.
+     *
+     * @return true if UNIX domain sockets are supported.
+     */
+    static boolean isSupported() {
+        return UNIX != null;
+    }
+
+    /**
+     * Opens a blocking channel connected to the UNIX domain socket of the specified file.
+     *
+     * @param socketFile the file of the UNIX domain socket.
+     * @return the connected channel.
+     * @throws IOException if the channel could not be connected or UNIX domain sockets are not
+     *         supported by the running Java version.
+     */
+    static SocketChannel connect(File socketFile) throws IOException {
+        if (!isSupported()) {
+            throw new IOException("UNIX domain sockets require Java 16 or later");
+        }
+        SocketChannel channel;
+        try {
+            channel = (SocketChannel) OPEN.invoke(null, UNIX);
+            try {
+                channel.connect((SocketAddress) ADDRESS_OF.invoke(null, socketFile.getPath()));
+            }
+            catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+        }
+        catch (IllegalAccessException e) {
+            throw new IOException(e);
+        }
+        catch (InvocationTargetException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+        return channel;
+    }
+
+    /**
+     * Returns a stream that reads from the specified blocking channel.
+     *
+     * @param channel the channel to read from.
+     * @return a stream that reads from the channel.
+     */
+    static InputStream newInputStream(final SocketChannel channel) {
+        return new InputStream() {
+            @Override
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) {
+                    return 0;
+                }
+                return channel.read(ByteBuffer.wrap(b, off, len));
+            }
+
+            @Override
+            public void close() throws IOException {
+                channel.close();
+            }
+        };
+    }
+
+    /**
+     * Returns a stream that writes to the specified blocking channel.
+     *
+     * @param channel the channel to write to.
+     * @return a stream that writes to the channel.
+     */
+    static OutputStream newOutputStream(final SocketChannel channel) {
+        return new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] {(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                channel.close();
+            }
+        };
+    }
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright 2026 Ignite Realtime Foundation
+ *
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.whack;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses the data written to the stream using zlib (XEP-0138). Data is compressed as it is
+ * written and every flush emits all pending data using the configured flush mode, so that the
+ * other side can decompress each stanza as soon as it was flushed.<p>
+ *
+ * A {@link Deflater#SYNC_FLUSH} keeps the compression dictionary between flushes and gives the
+ * best compression. A {@link Deflater#FULL_FLUSH} resets the dictionary on every flush, which
+ * compresses less but limits what an observer can learn from the compressed sizes.
+ */
+class ZlibOutputStream extends FilterOutputStream {
+
+    private final Deflater deflater;
+    private final int flushMode;
+    private final byte[] buffer = new byte[8192];
+
+    /**
+     * Creates a new stream that compresses using the specified deflater.
+     *
+     * @param out the stream that receives the compressed data.
+     * @param deflater the deflater to use. It is not ended when the stream is closed.
+     * @param flushMode {@link Deflater#SYNC_FLUSH} or {@link Deflater#FULL_FLUSH}.
+     */
+    ZlibOutputStream(OutputStream out, Deflater deflater, int flushMode) {
+        super(out);
+        if (flushMode != Deflater.SYNC_FLUSH && flushMode != Deflater.FULL_FLUSH) {
+            throw new IllegalArgumentException("Unsupported flush mode: " + flushMode);
+        }
+        this.deflater = deflater;
+        this.flushMode = flushMode;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return;
+        }
+        deflater.setInput(b, off, len);
+        while (!deflater.needsInput()) {
+            deflate(Deflater.NO_FLUSH);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        // A full buffer means that the deflater may have more output pending
+        while (deflate(flushMode) == buffer.length) {
+            // Keep draining
+        }
+        out.flush();
+    }
+
+    private int deflate(int mode) throws IOException {
+        int length = deflater.deflate(buffer, 0, buffer.length, mode);
+        if (length > 0) {
+            out.write(buffer, 0, length);
+        }
+        return length;
+    }
+}
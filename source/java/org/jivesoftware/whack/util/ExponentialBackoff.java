@@ -0,0 +1,72 @@
+/**
+ * Copyright 2026 Ignite Realtime Foundation
+ *
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.whack.util;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Computes the delay before the next attempt of an operation that keeps failing, such as
+ * reconnecting to a server. The delay doubles with every attempt, starting at the initial delay,
+ * until it reaches the maximum delay. A random jitter is applied to every delay so that many
+ * clients that failed at the same time do not retry in lockstep.
+ */
+public class ExponentialBackoff {
+
+    private final long initialDelay;
+    private final long maxDelay;
+    private final double jitter;
+
+    /**
+     * Creates a new backoff.
+     *
+     * @param initialDelay the delay, in milliseconds, before the first attempt.
+     * @param maxDelay the maximum delay, in milliseconds, between two attempts.
+     * @param jitter the fraction (between 0 and 1) of each delay that is randomized. A jitter
+     *        of 0.2 results in delays between 80% and 120% of the computed delay.
+     */
+    public ExponentialBackoff(long initialDelay, long maxDelay, double jitter) {
+        if (initialDelay < 0 || maxDelay < initialDelay) {
+            throw new IllegalArgumentException("Invalid delays: " + initialDelay + ", " + maxDelay);
+        }
+        if (jitter < 0 || jitter > 1) {
+            throw new IllegalArgumentException("Jitter must be between 0 and 1: " + jitter);
+        }
+        this.initialDelay = initialDelay;
+        this.maxDelay = maxDelay;
+        this.jitter = jitter;
+    }
+
+    /**
+     * Returns the delay, in milliseconds, before the specified attempt. The first attempt
+     * has number zero.
+     *
+     * @param attempt the number of the attempt, starting at zero.
+     * @return the delay in milliseconds before the attempt.
+     */
+    public long getDelay(int attempt) {
+        long delay = initialDelay;
+        for (int i = 0; i < attempt && delay < maxDelay; i++) {
+            delay *= 2;
+        }
+        delay = Math.min(delay, maxDelay);
+        if (jitter > 0 && delay > 0) {
+            double factor = 1 - jitter + ThreadLocalRandom.current().nextDouble() * 2 * jitter;
+            delay = (long) (delay * factor);
+        }
+        return delay;
+    }
+}
@@ -0,0 +1,82 @@
+/**
+ * Copyright 2026 Ignite Realtime Foundation
+ *
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.whack.util;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates stanza IDs for a single connection. IDs are composed of a short prefix that
+ * identifies the connection followed by a sequence number, e.g. <tt>x7k2b-1f</tt>. IDs are
+ * unique for the lifetime of the generator and generating one does not contend on any shared
+ * state, unlike {@link StringUtils#randomString(int)} which uses a single Random instance.<p>
+ *
+ * The prefix consists of a few random characters, which keep IDs of different processes apart,
+ * and a counter of the generators created by this process.
+ */
+public class StanzaIdGenerator {
+
+    private static final AtomicInteger generators = new AtomicInteger();
+
+    private static final char[] PREFIX_CHARACTERS = "0123456789abcdefghijklmnopqrstuvwxyz".toCharArray();
+
+    private final String prefix;
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * Creates a new generator with a prefix that is unique within this process.
+     */
+    public StanzaIdGenerator() {
+        char[] random = new char[3];
+        for (int i = 0; i < random.length; i++) {
+            random[i] = PREFIX_CHARACTERS[ThreadLocalRandom.current().nextInt(PREFIX_CHARACTERS.length)];
+        }
+        this.prefix = new String(random) + Integer.toString(generators.incrementAndGet(), 36) + "-";
+    }
+
+    /**
+     * Creates a new generator with the specified prefix. The IDs are only unique among
+     * generators if their prefixes are unique.
+     *
+     * @param prefix the prefix of all generated IDs.
+     */
+    public StanzaIdGenerator(String prefix) {
+        if (prefix == null) {
+            throw new IllegalArgumentException("Prefix cannot be null");
+        }
+        this.prefix = prefix;
+    }
+
+    /**
+     * Returns the prefix of the IDs generated by this generator.
+     *
+     * @return the prefix of the generated IDs.
+     */
+    public String getPrefix() {
+        return prefix;
+    }
+
+    /**
+     * Returns a new ID. Each call returns an ID that was never returned before by this generator.
+     *
+     * @return a new stanza ID.
+     */
+    public String nextId() {
+        return prefix.concat(Long.toString(sequence.incrementAndGet(), 36));
+    }
+}
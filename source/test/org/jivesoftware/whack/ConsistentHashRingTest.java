@@ -0,0 +1,139 @@
+/**
+ * Copyright 2026 Ignite Realtime Foundation
+ *
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.whack;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+public class ConsistentHashRingTest {
+
+    private static final int KEYS = 10000;
+
+    private static List<ServerEndpoint> nodes(int count) {
+        List<ServerEndpoint> nodes = new ArrayList<ServerEndpoint>();
+        for (int i = 0; i < count; i++) {
+            nodes.add(new ServerEndpoint("node" + i + ".example.com", 5275));
+        }
+        return nodes;
+    }
+
+    private static Map<String, ServerEndpoint> place(ConsistentHashRing ring) {
+        Map<String, ServerEndpoint> owners = new HashMap<String, ServerEndpoint>();
+        for (int i = 0; i < KEYS; i++) {
+            String key = "component" + i;
+            owners.put(key, ring.getPreferenceList(key).get(0));
+        }
+        return owners;
+    }
+
+    @Test
+    public void rejectsEmptyCluster() {
+        assertThrows(IllegalArgumentException.class, () -> new ConsistentHashRing(new ArrayList<ServerEndpoint>()));
+    }
+
+    @Test
+    public void spreadsKeysEvenly() {
+        List<ServerEndpoint> nodes = nodes(4);
+        Map<ServerEndpoint, Integer> counts = new HashMap<ServerEndpoint, Integer>();
+        for (ServerEndpoint owner : place(new ConsistentHashRing(nodes)).values()) {
+            counts.merge(owner, 1, Integer::sum);
+        }
+        assertEquals(nodes.size(), counts.size());
+        for (int count : counts.values()) {
+            // Each node should get about a quarter of the keys
+            assertTrue(count > KEYS * 0.15 && count < KEYS * 0.35, "Unbalanced ring: " + counts);
+        }
+    }
+
+    @Test
+    public void preferenceListHoldsEveryNodeOnce() {
+        List<ServerEndpoint> nodes = nodes(5);
+        ConsistentHashRing ring = new ConsistentHashRing(nodes);
+        List<ServerEndpoint> preference = ring.getPreferenceList("weather");
+        assertEquals(nodes.size(), preference.size());
+        assertEquals(new HashSet<ServerEndpoint>(nodes), new HashSet<ServerEndpoint>(preference));
+        // The order does not depend on the instance or on the order of the nodes
+        List<ServerEndpoint> shuffled = new ArrayList<ServerEndpoint>(nodes);
+        Collections.reverse(shuffled);
+        assertEquals(preference, new ConsistentHashRing(shuffled).getPreferenceList("weather"));
+    }
+
+    @Test
+    public void addingNodeOnlyMovesKeysToThatNode() {
+        List<ServerEndpoint> nodes = nodes(5);
+        Map<String, ServerEndpoint> before = place(new ConsistentHashRing(nodes.subList(0, 4)));
+        Map<String, ServerEndpoint> after = place(new ConsistentHashRing(nodes));
+        int moved = 0;
+        for (Map.Entry<String, ServerEndpoint> entry : after.entrySet()) {
+            if (!entry.getValue().equals(before.get(entry.getKey()))) {
+                assertEquals(nodes.get(4), entry.getValue());
+                moved++;
+            }
+        }
+        // About a fifth of the keys should move to the new node
+        assertTrue(moved > KEYS * 0.10 && moved < KEYS * 0.30, "Moved keys: " + moved);
+    }
+
+    @Test
+    public void removingNodeMovesItsKeysToTheirNextPreference() {
+        List<ServerEndpoint> nodes = nodes(4);
+        ServerEndpoint removed = nodes.get(2);
+        ConsistentHashRing full = new ConsistentHashRing(nodes);
+        List<ServerEndpoint> remaining = new ArrayList<ServerEndpoint>(nodes);
+        remaining.remove(removed);
+        ConsistentHashRing reduced = new ConsistentHashRing(remaining);
+        for (int i = 0; i < KEYS; i++) {
+            String key = "component" + i;
+            List<ServerEndpoint> preference = full.getPreferenceList(key);
+            ServerEndpoint owner = reduced.getPreferenceList(key).get(0);
+            if (preference.get(0).equals(removed)) {
+                // Failing over and removing the node lead to the same node
+                assertEquals(preference.get(1), owner);
+            }
+            else {
+                assertEquals(preference.get(0), owner);
+            }
+        }
+    }
+
+    @Test
+    public void failoverFollowsPreferenceList() {
+        ExternalComponentManager manager = new ExternalComponentManager("localhost", 5275, false);
+        assertNull(manager.getServerEndpoint("weather", 0));
+
+        List<ServerEndpoint> nodes = nodes(3);
+        manager.setServerEndpoints(nodes);
+        List<ServerEndpoint> preference = new ConsistentHashRing(nodes).getPreferenceList("weather");
+        for (int failover = 0; failover < 2 * nodes.size(); failover++) {
+            // Positions wrap around the preference list
+            assertEquals(preference.get(failover % nodes.size()), manager.getServerEndpoint("weather", failover));
+        }
+        // The hot standby is placed on the node after the primary one
+        assertEquals(preference.get(1), manager.getServerEndpoint("weather", 1));
+    }
+}
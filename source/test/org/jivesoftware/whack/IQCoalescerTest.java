@@ -0,0 +1,103 @@
+/**
+ * Copyright 2026 Ignite Realtime Foundation
+ *
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.whack;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.xmpp.component.IQResultListener;
+import org.xmpp.packet.IQ;
+
+public class IQCoalescerTest {
+
+    private final IQCoalescer coalescer = new IQCoalescer();
+    private final QueryKey key = QueryKey.of(discoInfo(), "weather.example.com");
+
+    private static IQ discoInfo() {
+        IQ packet = new IQ(IQ.Type.get);
+        packet.setTo("example.com");
+        packet.setChildElement("query", "http://jabber.org/protocol/disco#info");
+        return packet;
+    }
+
+    @Test
+    public void followersShareTheAnswerOfTheLeader() {
+        Recorder leader = new Recorder();
+        Recorder follower = new Recorder();
+        IQResultListener inFlight = coalescer.join(key, "a", leader, 1000, PendingQueryPolicy.WAIT);
+        assertNotNull(inFlight);
+        assertNotSame(leader, inFlight);
+        assertNull(coalescer.join(key, "b", follower, 1000, PendingQueryPolicy.WAIT));
+
+        IQ answer = IQ.createResultIQ(discoInfo());
+        answer.setID("a");
+        inFlight.receivedAnswer(answer);
+        assertEquals("a", leader.answers.get(0).getID());
+        assertEquals("b", follower.answers.get(0).getID());
+
+        // A query sent after the answer arrived leads a new request
+        assertNotNull(coalescer.join(key, "c", new Recorder(), 1000, PendingQueryPolicy.WAIT));
+    }
+
+    @Test
+    public void queriesWithAnotherPolicyAreNotCoalesced() {
+        Recorder follower = new Recorder();
+        IQResultListener inFlight = coalescer.join(key, "a", new Recorder(), 1000, PendingQueryPolicy.WAIT);
+        assertSame(follower, coalescer.join(key, "b", follower, 1000, PendingQueryPolicy.RESEND));
+
+        // The query in flight does not notify the query that was sent on its own
+        inFlight.answerTimeout("a");
+        assertEquals(0, follower.timeouts.size());
+    }
+
+    @Test
+    public void queriesWithAnotherTimeoutAreNotCoalesced() {
+        Recorder follower = new Recorder();
+        coalescer.join(key, "a", new Recorder(), 1000, PendingQueryPolicy.WAIT);
+        assertSame(follower, coalescer.join(key, "b", follower, 5000, PendingQueryPolicy.WAIT));
+    }
+
+    @Test
+    public void followersTimeOutWithTheLeader() {
+        Recorder follower = new Recorder();
+        IQResultListener inFlight = coalescer.join(key, "a", new Recorder(), 1000, PendingQueryPolicy.WAIT);
+        coalescer.join(key, "b", follower, 1000, PendingQueryPolicy.WAIT);
+        inFlight.answerTimeout("a");
+        assertEquals("b", follower.timeouts.get(0));
+    }
+
+    private static class Recorder implements IQResultListener {
+
+        final List<IQ> answers = new ArrayList<IQ>();
+        final List<String> timeouts = new ArrayList<String>();
+
+        public void receivedAnswer(IQ packet) {
+            answers.add(packet);
+        }
+
+        public void answerTimeout(String packetId) {
+            timeouts.add(packetId);
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/**
+ * Copyright 2026 Ignite Realtime Foundation
+ *
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.whack;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+import org.xmpp.component.IQResultListener;
+import org.xmpp.packet.IQ;
+import org.xmpp.packet.JID;
+
+public class IQResultCacheTest {
+
+    private static final String DISCO_INFO = "http://jabber.org/protocol/disco#info";
+    private static final String VCARD = "vcard-temp";
+
+    private final IQResultCache cache = new IQResultCache();
+
+    private static IQ query(String to, String namespace) {
+        IQ packet = new IQ(IQ.Type.get);
+        packet.setID("q1");
+        packet.setTo(to);
+        packet.setChildElement(namespace.equals(VCARD) ? "vCard" : "query", namespace);
+        return packet;
+    }
+
+    private static QueryKey key(IQ query) {
+        return QueryKey.of(query, "weather.example.com");
+    }
+
+    /**
+     * Sends the answer to the query through the listener that stores it in the cache.
+     */
+    private QueryKey answer(String to, String namespace) {
+        IQ query = query(to, namespace);
+        QueryKey key = key(query);
+        cache.storing(key, new Ignore()).receivedAnswer(IQ.createResultIQ(query));
+        return key;
+    }
+
+    @Test
+    public void onlyConfiguredNamespacesAreCached() {
+        assertFalse(cache.isEnabled());
+        cache.setTimeToLive(DISCO_INFO, 60000);
+        assertTrue(cache.isEnabled());
+        assertTrue(cache.isCacheable(key(query("example.com", DISCO_INFO))));
+        assertFalse(cache.isCacheable(key(query("example.com", VCARD))));
+
+        answer("example.com", VCARD);
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void answersAreCopiedWithTheIdOfTheQuery() {
+        cache.setTimeToLive(DISCO_INFO, 60000);
+        QueryKey key = answer("example.com", DISCO_INFO);
+        assertNull(cache.get(key(query("other.example.com", DISCO_INFO)), "q2"));
+
+        IQ cached = cache.get(key, "q2");
+        assertNotNull(cached);
+        assertEquals("q2", cached.getID());
+        assertEquals(IQ.Type.result, cached.getType());
+        // The cached answer itself keeps its ID
+        assertEquals("q1", cache.get(key, "q1").getID());
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void errorsAreNotCached() {
+        cache.setTimeToLive(DISCO_INFO, 60000);
+        IQ query = query("example.com", DISCO_INFO);
+        IQ error = IQ.createResultIQ(query);
+        error.setType(IQ.Type.error);
+        cache.storing(key(query), new Ignore()).receivedAnswer(error);
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void expiredAnswersAreEvicted() throws InterruptedException {
+        cache.setTimeToLive(DISCO_INFO, 50);
+        QueryKey key = answer("example.com", DISCO_INFO);
+        assertNotNull(cache.get(key, "q2"));
+
+        Thread.sleep(100);
+        assertNull(cache.get(key, "q3"));
+        assertEquals(0, cache.size());
+        assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    public void leastRecentlyUsedAnswerIsEvicted() {
+        cache.setTimeToLive(DISCO_INFO, 60000);
+        cache.setMaxEntries(2);
+        QueryKey a = answer("a.example.com", DISCO_INFO);
+        QueryKey b = answer("b.example.com", DISCO_INFO);
+        // Using the first answer makes the second one the least recently used
+        assertNotNull(cache.get(a, "q2"));
+        QueryKey c = answer("c.example.com", DISCO_INFO);
+
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get(a, "q3"));
+        assertNull(cache.get(b, "q4"));
+        assertNotNull(cache.get(c, "q5"));
+        assertEquals(1, cache.getEvictions());
+
+        // Shrinking the cache evicts the least recently used answers right away
+        cache.setMaxEntries(1);
+        assertEquals(1, cache.size());
+        assertNotNull(cache.get(c, "q6"));
+    }
+
+    @Test
+    public void invalidatesByAddressAndNamespace() {
+        cache.setTimeToLive(DISCO_INFO, 60000);
+        cache.setTimeToLive(VCARD, 60000);
+        QueryKey aInfo = answer("a.example.com", DISCO_INFO);
+        QueryKey aCard = answer("a.example.com", VCARD);
+        QueryKey bInfo = answer("b.example.com", DISCO_INFO);
+        QueryKey bCard = answer("b.example.com", VCARD);
+
+        cache.invalidate(new JID("a.example.com"), VCARD);
+        assertNull(cache.get(aCard, "q2"));
+        assertNotNull(cache.get(aInfo, "q2"));
+
+        cache.invalidate(new JID("a.example.com"));
+        assertNull(cache.get(aInfo, "q3"));
+        assertEquals(2, cache.size());
+
+        // Disabling a namespace drops its answers
+        cache.setTimeToLive(VCARD, 0);
+        assertNull(cache.get(bCard, "q4"));
+        assertNotNull(cache.get(bInfo, "q4"));
+        assertEquals(0, cache.getTimeToLive(VCARD));
+    }
+
+    private static class Ignore implements IQResultListener {
+
+        public void receivedAnswer(IQ packet) {
+        }
+
+        public void answerTimeout(String packetId) {
+        }
+    }
+}
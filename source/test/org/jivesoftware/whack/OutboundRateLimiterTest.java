@@ -0,0 +1,72 @@
+/**
+ * Copyright 2026 Ignite Realtime Foundation
+ *
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.whack;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class OutboundRateLimiterTest {
+
+    private static final long SECOND = 1000000000L;
+
+    @Test
+    public void throttledDomainDoesNotHoldBackOtherDomains() {
+        OutboundRateLimiter limiter = new OutboundRateLimiter(0, 0, 1, 1);
+        long[] delays = limiter.reserve(Arrays.asList("a.example.com", "a.example.com", "b.example.com"), -1);
+        assertEquals(0, delays[0]);
+        assertTrue(delays[1] > SECOND / 2, "Second stanza to the domain should wait");
+        assertEquals(0, delays[2]);
+
+        List<List<Integer>> groups = OutboundRateLimiter.group(delays);
+        assertEquals(Arrays.asList(Arrays.asList(0, 2), Collections.singletonList(1)), groups);
+    }
+
+    @Test
+    public void rejectionGivesBackConnectionTokens() {
+        OutboundRateLimiter limiter = new OutboundRateLimiter(1, 2, 0, 0);
+        assertNull(limiter.reserve(Arrays.asList("a", "b", "c"), 0));
+        assertEquals(1, limiter.getRejectedCount());
+        // The two tokens reserved before the rejection are available again
+        assertArrayEquals(new long[] {0, 0}, limiter.reserve(Arrays.asList("a", "b"), 0));
+    }
+
+    @Test
+    public void rejectionGivesBackDomainTokens() {
+        OutboundRateLimiter limiter = new OutboundRateLimiter(1, 1, 1, 1);
+        // The connection allows one stanza, the domain bucket of the first one is given back
+        assertNull(limiter.reserve(Arrays.asList("a", "b"), 0));
+        assertArrayEquals(new long[] {0}, limiter.reserve(Collections.singletonList("a"), 0));
+    }
+
+    @Test
+    public void domainBucketsAreBounded() {
+        OutboundRateLimiter limiter = new OutboundRateLimiter(0, 0, 1, 1);
+        for (int i = 0; i < 12000; i++) {
+            // Every bucket is left empty
+            limiter.reserve(Collections.singletonList("domain" + i + ".example.com"), -1);
+        }
+        assertEquals(10000, limiter.getDomainCount());
+    }
+}
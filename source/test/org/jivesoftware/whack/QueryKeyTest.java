@@ -0,0 +1,96 @@
+/**
+ * Copyright 2026 Ignite Realtime Foundation
+ *
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.whack;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.dom4j.DocumentException;
+import org.dom4j.DocumentHelper;
+import org.junit.jupiter.api.Test;
+import org.xmpp.packet.IQ;
+
+public class QueryKeyTest {
+
+    private static final String COMPONENT = "weather.example.com";
+
+    private static QueryKey key(String xml) throws DocumentException {
+        return QueryKey.of(new IQ(DocumentHelper.parseText(xml).getRootElement()), COMPONENT);
+    }
+
+    private static QueryKey query(String child) throws DocumentException {
+        return key("<iq type='get' id='1' to='example.com'>" + child + "</iq>");
+    }
+
+    @Test
+    public void onlyGetsWithChildElementHaveKeys() throws DocumentException {
+        assertNull(key("<iq type='set' id='1' to='example.com'><query xmlns='jabber:iq:version'/></iq>"));
+        assertNull(key("<iq type='get' id='1' to='example.com'/>"));
+    }
+
+    @Test
+    public void idAndAttributeOrderDoNotMatter() throws DocumentException {
+        QueryKey key = key("<iq type='get' id='1' to='example.com'><query xmlns='urn:test' a='1' b='2'/></iq>");
+        assertEquals(key, key("<iq id='2' to='example.com' type='get'><query xmlns='urn:test' b='2' a='1'/></iq>"));
+        assertEquals(key.hashCode(),
+                key("<iq type='get' id='3' to='example.com'><query b='2' xmlns='urn:test' a='1'/></iq>").hashCode());
+    }
+
+    @Test
+    public void senderDefaultsToComponent() throws DocumentException {
+        QueryKey key = query("<query xmlns='urn:test'/>");
+        assertEquals(key, key("<iq type='get' id='1' from='" + COMPONENT + "' to='example.com'>"
+                + "<query xmlns='urn:test'/></iq>"));
+        assertNotEquals(key, key("<iq type='get' id='1' from='other.example.com' to='example.com'>"
+                + "<query xmlns='urn:test'/></iq>"));
+    }
+
+    @Test
+    public void recipientAndNamespaceMatter() throws DocumentException {
+        QueryKey key = query("<query xmlns='urn:test'/>");
+        assertNotEquals(key, key("<iq type='get' id='1' to='other.example.com'><query xmlns='urn:test'/></iq>"));
+        assertNotEquals(key, query("<query xmlns='urn:other'/>"));
+        assertEquals("example.com", key.getTo());
+        assertEquals("urn:test", key.getNamespace());
+    }
+
+    @Test
+    public void whitespaceOnlyTextIsIgnored() throws DocumentException {
+        assertEquals(query("<query xmlns='urn:test'><item/></query>"),
+                query("<query xmlns='urn:test'>\n  <item/>\n</query>"));
+    }
+
+    @Test
+    public void textIsNotTrimmed() throws DocumentException {
+        assertNotEquals(query("<query xmlns='urn:test'><name>x</name></query>"),
+                query("<query xmlns='urn:test'><name> x</name></query>"));
+    }
+
+    @Test
+    public void valuesAreEscaped() throws DocumentException {
+        // An attribute value that looks like two attributes
+        assertNotEquals(query("<query xmlns='urn:test' a='1' b='2'/>"),
+                query("<query xmlns='urn:test' a='1&quot; :b=&quot;2'/>"));
+        // Text that looks like a child element
+        assertNotEquals(query("<query xmlns='urn:test'><item/></query>"),
+                query("<query xmlns='urn:test'>&lt;\"urn:test\" item&gt;&lt;/&gt;</query>"));
+        // Text that looks like an escaped value
+        assertNotEquals(query("<query xmlns='urn:test'>&amp;quot;</query>"),
+                query("<query xmlns='urn:test'>\"</query>"));
+    }
+}
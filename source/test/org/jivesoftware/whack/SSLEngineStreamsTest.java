@@ -0,0 +1,158 @@
+/**
+ * Copyright 2026 Ignite Realtime Foundation
+ *
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.whack;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.TrustManagerFactory;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Runs TLS handshakes between two {@link SSLEngineStreams} over a local socket pair and checks
+ * that resumed sessions are detected with TLS 1.2 and TLS 1.3.
+ */
+public class SSLEngineStreamsTest {
+
+    private static final char[] PASSWORD = "changeit".toCharArray();
+
+    private static KeyStore keyStore;
+    private static ExecutorService server;
+
+    @BeforeAll
+    public static void setUp() throws Exception {
+        // A self-signed certificate for localhost, used as key store and trust store
+        keyStore = KeyStore.getInstance("PKCS12");
+        try (InputStream in = SSLEngineStreamsTest.class.getResourceAsStream("localhost.p12")) {
+            keyStore.load(in, PASSWORD);
+        }
+        server = Executors.newSingleThreadExecutor();
+    }
+
+    @AfterAll
+    public static void tearDown() {
+        server.shutdownNow();
+    }
+
+    @Test
+    public void detectsResumptionWithTls12() throws Exception {
+        checkResumption("TLSv1.2");
+    }
+
+    @Test
+    public void detectsResumptionWithTls13() throws Exception {
+        checkResumption("TLSv1.3");
+    }
+
+    private static void checkResumption(String protocol) throws Exception {
+        SSLContext serverContext = serverContext();
+        SSLContext clientContext = clientContext();
+
+        SSLSession first = handshake(serverContext, clientContext, protocol);
+        assertEquals(protocol, first.getProtocol());
+        assertFalse(ServerConnection.isResumption(null, first));
+
+        SSLSession second = handshake(serverContext, clientContext, protocol);
+        assertTrue(ServerConnection.isResumption(first, second));
+        SSLSession third = handshake(serverContext, clientContext, protocol);
+        assertTrue(ServerConnection.isResumption(second, third));
+
+        // A client that does not know the previous session needs a full handshake
+        SSLSession full = handshake(serverContext, clientContext(), protocol);
+        assertFalse(ServerConnection.isResumption(third, full));
+    }
+
+    /**
+     * Connects a client to a server over a local socket pair, exchanges some data and returns
+     * the session of the client.
+     */
+    private static SSLSession handshake(SSLContext serverContext, SSLContext clientContext, String protocol)
+            throws Exception {
+        try (ServerSocket listener = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+             Socket client = new Socket(InetAddress.getLoopbackAddress(), listener.getLocalPort());
+             final Socket accepted = listener.accept()) {
+            client.setSoTimeout(5000);
+            accepted.setSoTimeout(5000);
+
+            SSLEngine serverEngine = serverContext.createSSLEngine();
+            serverEngine.setUseClientMode(false);
+            serverEngine.setEnabledProtocols(new String[] {protocol});
+            final SSLEngineStreams serverTls =
+                    new SSLEngineStreams(serverEngine, accepted.getInputStream(), accepted.getOutputStream());
+            Future<?> echo = server.submit(() -> {
+                serverTls.handshake();
+                byte[] data = new byte[4];
+                new DataInputStream(serverTls.getInputStream()).readFully(data);
+                serverTls.getOutputStream().write(data);
+                serverTls.getOutputStream().flush();
+                return null;
+            });
+
+            // The port identifies the server in the session cache of the client
+            SSLEngine clientEngine = clientContext.createSSLEngine("localhost", 0);
+            clientEngine.setUseClientMode(true);
+            clientEngine.setEnabledProtocols(new String[] {protocol});
+            SSLEngineStreams clientTls =
+                    new SSLEngineStreams(clientEngine, client.getInputStream(), client.getOutputStream());
+            clientTls.handshake();
+            // TLS 1.3 sends the tickets used for resumption after the handshake
+            clientTls.getOutputStream().write("ping".getBytes(StandardCharsets.UTF_8));
+            clientTls.getOutputStream().flush();
+            byte[] answer = new byte[4];
+            new DataInputStream(clientTls.getInputStream()).readFully(answer);
+            assertEquals("ping", new String(answer, StandardCharsets.UTF_8));
+            echo.get();
+            return clientEngine.getSession();
+        }
+    }
+
+    private static SSLContext serverContext() throws Exception {
+        KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagers.init(keyStore, PASSWORD);
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(keyManagers.getKeyManagers(), null, null);
+        return context;
+    }
+
+    private static SSLContext clientContext() throws Exception {
+        TrustManagerFactory trustManagers = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagers.init(keyStore);
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(null, trustManagers.getTrustManagers(), null);
+        return context;
+    }
+}
@@ -0,0 +1,96 @@
+/**
+ * Copyright 2026 Ignite Realtime Foundation
+ *
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.whack;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.jupiter.api.Test;
+
+public class StreamManagementTest {
+
+    private final StreamManagement session = new StreamManagement(3);
+
+    private void send(String... stanzas) {
+        for (String stanza : stanzas) {
+            session.sent(stanza, Integer.MAX_VALUE);
+        }
+    }
+
+    @Test
+    public void requestsAcknowledgementAtTheInterval() {
+        assertFalse(session.sent("a", 2));
+        assertTrue(session.sent("b", 2));
+        assertFalse(session.sent("c", 2));
+    }
+
+    @Test
+    public void acknowledgedStanzasAreRemoved() {
+        session.start("s1");
+        send("a", "b", "c");
+        session.acked(2);
+        assertEquals(Collections.singletonList("c"), session.getUnacked());
+
+        // Acknowledgements of stanzas that were not sent are ignored
+        session.acked(10);
+        assertEquals(0, session.getUnackedCount());
+        send("d");
+        assertEquals(Collections.singletonList("d"), session.getUnacked());
+    }
+
+    @Test
+    public void resumeReturnsUnacknowledgedStanzas() {
+        session.start("s1");
+        send("a", "b", "c");
+        assertEquals(Arrays.asList("b", "c"), session.resume(1));
+        assertEquals(0, session.getUnackedCount());
+
+        // Sent again with the same sequence numbers
+        send("b", "c");
+        session.acked(3);
+        assertEquals(0, session.getUnackedCount());
+        assertEquals("s1", session.getResumptionId());
+    }
+
+    @Test
+    public void fullRingDropsOldestStanzas() {
+        send("a", "b", "c", "d", "e");
+        assertEquals(Arrays.asList("c", "d", "e"), session.getUnacked());
+
+        // The server received less than the stanzas kept, the dropped ones are lost
+        assertEquals(Arrays.asList("c", "d", "e"), session.resume(1));
+        send("c", "d", "e");
+        session.acked(4);
+        assertEquals(0, session.getUnackedCount());
+    }
+
+    @Test
+    public void startDiscardsPreviousSession() {
+        session.start("s1");
+        send("a", "b");
+        session.received();
+        session.start(null);
+        assertNull(session.getResumptionId());
+        assertEquals(0, session.getUnackedCount());
+        assertEquals(0, session.getReceived());
+    }
+}
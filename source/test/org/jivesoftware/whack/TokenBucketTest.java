@@ -0,0 +1,78 @@
+/**
+ * Copyright 2026 Ignite Realtime Foundation
+ *
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.whack;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+public class TokenBucketTest {
+
+    private static final long MILLISECOND = 1000000L;
+    private static final long FOREVER = Long.MAX_VALUE;
+
+    // Ten tokens per second, one every 100 ms
+    private final TokenBucket bucket = new TokenBucket(10, 2);
+    private final long start = System.nanoTime();
+
+    @Test
+    public void burstIsAvailableRightAway() {
+        assertEquals(0, bucket.reserve(1, start, 0));
+        assertEquals(0, bucket.reserve(1, start, 0));
+        assertEquals(-1, bucket.reserve(1, start, 0));
+    }
+
+    @Test
+    public void reservationsWaitInTurn() {
+        assertEquals(0, bucket.reserve(2, start, 0));
+        assertEquals(100 * MILLISECOND, bucket.reserve(1, start, FOREVER));
+        assertEquals(200 * MILLISECOND, bucket.reserve(1, start, FOREVER));
+        // Time that passed is taken off the wait
+        assertEquals(250 * MILLISECOND, bucket.reserve(1, start + 50 * MILLISECOND, FOREVER));
+    }
+
+    @Test
+    public void rejectedReservationsTakeNothing() {
+        assertEquals(0, bucket.reserve(2, start, 0));
+        assertEquals(-1, bucket.reserve(5, start, 100 * MILLISECOND));
+        assertEquals(100 * MILLISECOND, bucket.reserve(1, start, 100 * MILLISECOND));
+    }
+
+    @Test
+    public void refillStopsAtCapacity() {
+        assertEquals(0, bucket.reserve(2, start, 0));
+        // Long enough to add many more tokens than fit in the bucket
+        long later = start + 10000 * MILLISECOND;
+        assertEquals(0, bucket.reserve(2, later, 0));
+        assertEquals(-1, bucket.reserve(1, later, 0));
+    }
+
+    @Test
+    public void releaseGivesBackTokens() {
+        assertEquals(0, bucket.reserve(2, start, 0));
+        assertEquals(100 * MILLISECOND, bucket.reserve(1, start, FOREVER));
+        bucket.release(1);
+        assertEquals(0, bucket.reserve(0, start, 0));
+        bucket.release(1);
+        assertEquals(0, bucket.reserve(1, start, 0));
+
+        // Releasing more than was reserved does not overfill the bucket
+        bucket.release(5);
+        assertEquals(0, bucket.reserve(2, start, 0));
+        assertEquals(-1, bucket.reserve(1, start, 0));
+    }
+}
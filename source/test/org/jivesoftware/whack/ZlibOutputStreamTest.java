@@ -0,0 +1,104 @@
+/**
+ * Copyright 2026 Ignite Realtime Foundation
+ *
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.whack;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Sends compressed stanzas over a local socket pair, the way a connection with compression
+ * negotiated does, and checks that each stanza can be read as soon as it was flushed.
+ */
+public class ZlibOutputStreamTest {
+
+    @Test
+    public void syncFlushDeliversEveryStanza() throws IOException {
+        roundTrip(Deflater.SYNC_FLUSH);
+    }
+
+    @Test
+    public void fullFlushDeliversEveryStanza() throws IOException {
+        roundTrip(Deflater.FULL_FLUSH);
+    }
+
+    @Test
+    public void rejectsOtherFlushModes() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new ZlibOutputStream(new ByteArrayOutputStream(), new Deflater(), Deflater.NO_FLUSH));
+    }
+
+    private static void roundTrip(int flushMode) throws IOException {
+        Deflater deflater = new Deflater();
+        Inflater inflater = new Inflater();
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+             Socket client = new Socket(InetAddress.getLoopbackAddress(), server.getLocalPort());
+             Socket accepted = server.accept()) {
+            // Fail instead of hanging if a flush does not emit the whole stanza
+            accepted.setSoTimeout(5000);
+            OutputStream out = new ZlibOutputStream(client.getOutputStream(), deflater, flushMode);
+            DataInputStream in = new DataInputStream(new InflaterInputStream(accepted.getInputStream(), inflater));
+
+            String[] stanzas = {
+                    "<message to='juliet@example.com'><body>Hi</body></message>",
+                    "<message to='juliet@example.com'><body>Hi</body></message>",
+                    "<presence/>",
+                    largeStanza()
+            };
+            for (String stanza : stanzas) {
+                byte[] sent = stanza.getBytes(StandardCharsets.UTF_8);
+                out.write(sent);
+                // Stanzas are flushed one at a time, so the reader must not need more data
+                out.flush();
+                byte[] received = new byte[sent.length];
+                in.readFully(received);
+                assertEquals(stanza, new String(received, StandardCharsets.UTF_8));
+            }
+        }
+        finally {
+            deflater.end();
+            inflater.end();
+        }
+    }
+
+    /**
+     * Returns a stanza that does not compress well and is larger than the buffer of the
+     * stream, so that a flush has to drain the deflater more than once.
+     */
+    private static String largeStanza() {
+        Random random = new Random(42);
+        StringBuilder body = new StringBuilder("<message><body>");
+        for (int i = 0; i < 32 * 1024; i++) {
+            body.append((char) ('a' + random.nextInt(26)));
+        }
+        return body.append("</body></message>").toString();
+    }
+}
@@ -0,0 +1,65 @@
+/**
+ * Copyright 2026 Ignite Realtime Foundation
+ *
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.whack.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+public class ExponentialBackoffTest {
+
+    @Test
+    public void delayDoublesUntilMaximum() {
+        ExponentialBackoff backoff = new ExponentialBackoff(100, 1000, 0);
+        assertEquals(100, backoff.getDelay(0));
+        assertEquals(200, backoff.getDelay(1));
+        assertEquals(400, backoff.getDelay(2));
+        assertEquals(800, backoff.getDelay(3));
+        assertEquals(1000, backoff.getDelay(4));
+        assertEquals(1000, backoff.getDelay(Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void jitterStaysWithinBounds() {
+        ExponentialBackoff backoff = new ExponentialBackoff(1000, 1000, 0.2);
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for (int i = 0; i < 10000; i++) {
+            long delay = backoff.getDelay(i % 3);
+            min = Math.min(min, delay);
+            max = Math.max(max, delay);
+        }
+        assertTrue(min >= 800, "Delay below 80%: " + min);
+        assertTrue(max <= 1200, "Delay above 120%: " + max);
+        // The delays are actually spread
+        assertTrue(max - min > 200, "Delays between " + min + " and " + max);
+    }
+
+    @Test
+    public void zeroDelayStaysZero() {
+        assertEquals(0, new ExponentialBackoff(0, 1000, 0.5).getDelay(10));
+    }
+
+    @Test
+    public void rejectsInvalidArguments() {
+        assertThrows(IllegalArgumentException.class, () -> new ExponentialBackoff(-1, 1000, 0));
+        assertThrows(IllegalArgumentException.class, () -> new ExponentialBackoff(1000, 100, 0));
+        assertThrows(IllegalArgumentException.class, () -> new ExponentialBackoff(100, 1000, 1.5));
+    }
+}
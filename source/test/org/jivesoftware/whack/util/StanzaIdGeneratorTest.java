@@ -0,0 +1,89 @@
+/**
+ * Copyright 2026 Ignite Realtime Foundation
+ *
+ * All rights reserved. Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.whack.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+
+public class StanzaIdGeneratorTest {
+
+    @Test
+    public void idsAreTheSequenceAfterThePrefix() {
+        StanzaIdGenerator generator = new StanzaIdGenerator("abc-");
+        assertEquals("abc-1", generator.nextId());
+        assertEquals("abc-2", generator.nextId());
+        for (int i = 3; i < 36; i++) {
+            generator.nextId();
+        }
+        // The sequence number is written in base 36
+        assertEquals("abc-10", generator.nextId());
+    }
+
+    @Test
+    public void generatorsHaveDifferentPrefixes() {
+        Set<String> prefixes = new HashSet<String>();
+        for (int i = 0; i < 1000; i++) {
+            String prefix = new StanzaIdGenerator().getPrefix();
+            assertTrue(prefix.endsWith("-"));
+            assertTrue(prefixes.add(prefix), "Duplicate prefix " + prefix);
+        }
+        assertNotEquals(new StanzaIdGenerator().nextId(), new StanzaIdGenerator().nextId());
+    }
+
+    @Test
+    public void rejectsNullPrefix() {
+        assertThrows(IllegalArgumentException.class, () -> new StanzaIdGenerator(null));
+    }
+
+    @Test
+    public void idsAreUniqueAcrossThreads() throws Exception {
+        final StanzaIdGenerator generator = new StanzaIdGenerator();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<List<String>>> results = new ArrayList<Future<List<String>>>();
+            for (int i = 0; i < 4; i++) {
+                results.add(executor.submit(() -> {
+                    List<String> ids = new ArrayList<String>();
+                    for (int j = 0; j < 10000; j++) {
+                        ids.add(generator.nextId());
+                    }
+                    return ids;
+                }));
+            }
+            Set<String> ids = new HashSet<String>();
+            for (Future<List<String>> result : results) {
+                ids.addAll(result.get());
+            }
+            assertEquals(40000, ids.size());
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+}